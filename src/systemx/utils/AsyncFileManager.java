@@ -0,0 +1,345 @@
+package systemx.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * A utility class running the operations of {@link FileManager} asynchronously.
+ * <p>
+ * Every operation runs on its own virtual thread and returns a {@link CompletableFuture}, completed
+ * exceptionally with the exception {@link FileManager} would have thrown. Hundreds of operations can be
+ * in flight without holding as many platform threads. The number of operations running at once on the
+ * same storage device is bounded, so a slow disk doesn't get flooded, and the operations changing a
+ * file run one at a time, in the order they were submitted.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class AsyncFileManager {
+    private AsyncFileManager() {}
+
+    /**
+     * The default number of operations running at once on the same storage device.
+     */
+    public static final int DEFAULT_CONCURRENCY_PER_DEVICE = 64;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Map<Object, Semaphore> DEVICES = new ConcurrentHashMap<>();
+    private static final boolean UNIX = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private static final Semaphore UNKNOWN_DEVICE = new Semaphore(DEFAULT_CONCURRENCY_PER_DEVICE, true);
+
+    /**
+     * The last change submitted for every file still being changed.
+     */
+    private static final Map<File, CompletableFuture<Void>> CHANGES = new ConcurrentHashMap<>();
+    private static volatile int concurrencyPerDevice = DEFAULT_CONCURRENCY_PER_DEVICE;
+
+    /**
+     * An operation on a file, run on a virtual thread.
+     * @param <T> The type of the result of the operation
+     */
+    @FunctionalInterface
+    interface FileTask<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * Sets the number of operations running at once on the same storage device.
+     * <p>
+     * Only applies to the devices that haven't been used yet.
+     *
+     * @param concurrency The maximum number of operations per device
+     * @throws IllegalArgumentException if the concurrency is not positive
+     */
+    public static void setConcurrencyPerDevice(int concurrency) {
+        if (concurrency <= 0) throw new IllegalArgumentException();
+        concurrencyPerDevice = concurrency;
+    }
+
+    /**
+     * Reads the content of a file asynchronously.
+     * @param file The file to read
+     * @return The lines of the file
+     * @see FileManager#getFileLines(File)
+     */
+    public static CompletableFuture<List<String>> getFileLines(File file) {
+        return read(file, () -> FileManager.getFileLines(file));
+    }
+
+    /**
+     * Reads a range of lines of a file asynchronously.
+     * @param file The file to read
+     * @param start The line number to start reading from
+     * @param end The line number to stop reading at
+     * @return The lines read
+     * @see FileManager#getFileLines(File, Integer, Integer)
+     */
+    public static CompletableFuture<List<String>> getFileLines(File file, Integer start, Integer end) {
+        return read(file, () -> FileManager.getFileLines(file, start, end));
+    }
+
+    /**
+     * Reads a line of a file asynchronously.
+     * @param file The file to read
+     * @param lineNumber The line number to get
+     * @return The line
+     * @see FileManager#getFileLine(File, Integer)
+     */
+    public static CompletableFuture<String> getFileLine(File file, Integer lineNumber) {
+        return read(file, () -> FileManager.getFileLine(file, lineNumber));
+    }
+
+    /**
+     * Reads the lines below an index asynchronously.
+     * @param file The file to read
+     * @param index The index of the row to get below
+     * @return The lines below the index
+     * @see FileManager#getLinesBelow(File, Integer)
+     */
+    public static CompletableFuture<List<String>> getLinesBelow(File file, Integer index) {
+        return read(file, () -> FileManager.getLinesBelow(file, index));
+    }
+
+    /**
+     * Reads the lines above an index asynchronously.
+     * @param file The file to read
+     * @param index The index of the row to get above
+     * @return The lines above the index
+     * @see FileManager#getLinesAbove(File, Integer)
+     */
+    public static CompletableFuture<List<String>> getLinesAbove(File file, Integer index) {
+        return read(file, () -> FileManager.getLinesAbove(file, index));
+    }
+
+    /**
+     * Counts the lines of a file asynchronously.
+     * @param file The file to count the lines of
+     * @return The number of lines
+     * @see FileManager#countLines(File)
+     */
+    public static CompletableFuture<Integer> countLines(File file) {
+        return read(file, () -> FileManager.countLines(file));
+    }
+
+    /**
+     * Appends a line to a file asynchronously.
+     * @param file The file to append to
+     * @param line The line to append
+     * @return A future completed once the line is appended
+     * @see FileManager#appendToFile(File, String)
+     */
+    public static CompletableFuture<Void> appendToFile(File file, String line) {
+        return write(file, () -> FileManager.appendToFile(file, line));
+    }
+
+    /**
+     * Appends lines to a file asynchronously.
+     * @param file The file to append to
+     * @param lines The lines to append
+     * @return A future completed once the lines are appended
+     * @see FileManager#appendToFile(File, String[])
+     */
+    public static CompletableFuture<Void> appendToFile(File file, String[] lines) {
+        return write(file, () -> FileManager.appendToFile(file, lines));
+    }
+
+    /**
+     * Appends the content of a file to another file asynchronously.
+     * @param file The file to append to
+     * @param fileToAppend The file to append
+     * @return A future completed once the file is appended
+     * @see FileManager#appendToFile(File, File)
+     */
+    public static CompletableFuture<Void> appendToFile(File file, File fileToAppend) {
+        return write(file, () -> FileManager.appendToFile(file, fileToAppend));
+    }
+
+    /**
+     * Overrides the content of a file asynchronously.
+     * @param file The file to override
+     * @param lines The lines to override with
+     * @return A future completed once the file is overridden
+     * @see FileManager#overrideFile(File, String[])
+     */
+    public static CompletableFuture<Void> overrideFile(File file, String[] lines) {
+        return write(file, () -> FileManager.overrideFile(file, lines));
+    }
+
+    /**
+     * Overrides the content of a file with the content of another file asynchronously.
+     * @param file The file to override
+     * @param newFile The file to override with
+     * @return A future completed once the file is overridden
+     * @see FileManager#overrideFile(File, File)
+     */
+    public static CompletableFuture<Void> overrideFile(File file, File newFile) {
+        return write(file, () -> FileManager.overrideFile(file, newFile));
+    }
+
+    /**
+     * Overrides a line of a file asynchronously.
+     * @param file The file to override
+     * @param lineNumber The line number to override
+     * @param newLine The new line
+     * @return A future completed once the line is overridden
+     * @see FileManager#overrideLine(File, Integer, String)
+     */
+    public static CompletableFuture<Void> overrideLine(File file, Integer lineNumber, String newLine) {
+        return write(file, () -> FileManager.overrideLine(file, lineNumber, newLine));
+    }
+
+    /**
+     * Overrides a section of a file asynchronously.
+     * @param file The file to override
+     * @param start The line number to start overriding from
+     * @param end The line number to stop overriding at
+     * @param newLines The lines to override with
+     * @return A future completed once the section is overridden
+     * @see FileManager#overrideSection(File, Integer, Integer, String[])
+     */
+    public static CompletableFuture<Void> overrideSection(File file, Integer start, Integer end, String[] newLines) {
+        return write(file, () -> FileManager.overrideSection(file, start, end, newLines));
+    }
+
+    /**
+     * Inserts a line in a file asynchronously.
+     * @param file The file to insert in
+     * @param line The line to insert
+     * @param lineNumber The line number to insert at
+     * @return A future completed once the line is inserted
+     * @see FileManager#insertLine(File, String, Integer)
+     */
+    public static CompletableFuture<Void> insertLine(File file, String line, Integer lineNumber) {
+        return write(file, () -> FileManager.insertLine(file, line, lineNumber));
+    }
+
+    /**
+     * Inserts lines in a file asynchronously.
+     * @param file The file to insert in
+     * @param lines The lines to insert
+     * @param lineNumber The line number to insert at
+     * @return A future completed once the lines are inserted
+     * @see FileManager#insertLines(File, String[], Integer)
+     */
+    public static CompletableFuture<Void> insertLines(File file, String[] lines, Integer lineNumber) {
+        return write(file, () -> FileManager.insertLines(file, lines, lineNumber));
+    }
+
+    /**
+     * Deletes a line of a file asynchronously.
+     * @param file The file to delete from
+     * @param lineNumber The line number to delete
+     * @return A future completed once the line is deleted
+     * @see FileManager#deleteLine(File, Integer)
+     */
+    public static CompletableFuture<Void> deleteLine(File file, Integer lineNumber) {
+        return write(file, () -> FileManager.deleteLine(file, lineNumber));
+    }
+
+    /**
+     * Deletes a section of a file asynchronously.
+     * @param file The file to delete from
+     * @param start The line number to start deleting from
+     * @param end The line number to stop deleting at
+     * @return A future completed once the section is deleted
+     * @see FileManager#deleteSection(File, Integer, Integer)
+     */
+    public static CompletableFuture<Void> deleteSection(File file, Integer start, Integer end) {
+        return write(file, () -> FileManager.deleteSection(file, start, end));
+    }
+
+    /**
+     * Runs an operation reading a file on a virtual thread.
+     */
+    static <T> CompletableFuture<T> read(File file, FileTask<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        EXECUTOR.execute(() -> run(file, task, future));
+        return future;
+    }
+
+    /**
+     * Runs an operation changing a file on a virtual thread, once the changes submitted before are done.
+     */
+    private static CompletableFuture<Void> write(File file, FileAction action) {
+        final File key = file.getAbsoluteFile();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> previous = CHANGES.put(key, future);
+        final Runnable start = () -> EXECUTOR.execute(() -> {
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            run(file, () -> {
+                action.run();
+                return null;
+            }, done);
+            CHANGES.remove(key, future);
+            done.whenComplete((result, failure) -> {
+                if (failure == null) future.complete(null);
+                else future.completeExceptionally(failure);
+            });
+        });
+        if (previous == null) start.run();
+        else previous.whenComplete((result, failure) -> start.run());
+        return future;
+    }
+
+    /**
+     * Runs an operation holding a permit of the device of its file.
+     */
+    private static <T> void run(File file, FileTask<T> task, CompletableFuture<T> future) {
+        final Semaphore permits = device(file);
+        try {
+            permits.acquire();
+            try {
+                future.complete(task.call());
+            } finally {
+                permits.release();
+            }
+        } catch (Throwable e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Gets the permits of the storage device holding a file.
+     */
+    private static Semaphore device(File file) {
+        final File absolute = file.getAbsoluteFile();
+        final File directory = absolute.getParentFile() != null ? absolute.getParentFile() : absolute;
+        // looked up every time rather than cached by path, so a remounted directory gets its new device
+        final Object device = deviceOf(directory.toPath());
+        if (device == null) return UNKNOWN_DEVICE;
+        return DEVICES.computeIfAbsent(device, key -> new Semaphore(concurrencyPerDevice, true));
+    }
+
+    /**
+     * Identifies the storage device of a directory: its device number where a single stat tells it,
+     * its file store otherwise.
+     */
+    private static Object deviceOf(Path directory) {
+        try {
+            if (UNIX) return Files.getAttribute(directory, "unix:dev");
+            return Files.getFileStore(directory);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An operation changing a file, with no result.
+     */
+    @FunctionalInterface
+    private interface FileAction {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,224 @@
+package systemx.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.SecureRandom;
+
+
+/**
+ * A utility class replacing files atomically.
+ * <p>
+ * The new content of a file is written to a temporary file created next to it, which is then
+ * moved over the file in one step, so readers only ever see the old or the new content, and a crash
+ * leaves one of them. How far the replacement is synced to the storage is set by a {@link Durability}.
+ * <p>
+ * Symbolic links are followed, so the file they point to is replaced and the links are kept. The permissions,
+ * owner and group of the replaced file are kept as far as the platform and the privileges of the process allow.
+ * A file with other hard links is detached from them, as any replacement by renaming does. A file system that
+ * can't rename atomically makes the replacement fail rather than silently replacing the file in place.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class AtomicFiles {
+    private AtomicFiles() {}
+
+    /**
+     * The suffix of the temporary files.
+     */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The maximum number of symbolic links followed to find the replaced file.
+     */
+    private static final int MAX_LINKS = 40;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Creates an empty temporary file in the directory of a file.
+     * <p>
+     * The temporary file of an existing file is only readable by its owner until the permissions of the file
+     * are copied to it on commit. The temporary file of a new file gets the permissions new files are given,
+     * as the process' umask allows, which it keeps once committed.
+     *
+     * @param file The file the temporary file will replace
+     * @return The temporary file
+     * @throws IOException if the temporary file can't be created
+     */
+    static Path createSibling(File file) throws IOException {
+        final Path target = resolve(file);
+        final String prefix = "." + target.getFileName() + ".";
+        if (Files.exists(target)) return Files.createTempFile(target.getParent(), prefix, TEMP_SUFFIX);
+        while (true) {
+            try {
+                // named like Files.createTempFile does, but created with the default permissions
+                return Files.createFile(target.resolveSibling(prefix + Long.toUnsignedString(RANDOM.nextLong()) + TEMP_SUFFIX));
+            } catch (FileAlreadyExistsException taken) {
+                // drawn again
+            }
+        }
+    }
+
+    /**
+     * Resolves the file a path designates, following symbolic links, even dangling ones.
+     *
+     * @param file The file
+     * @return The real path of the file, which may not exist yet
+     * @throws IOException if the links loop or the directory of the file doesn't exist
+     */
+    static Path resolve(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        for (int links = 0; Files.isSymbolicLink(path); links++) {
+            if (links == MAX_LINKS) throw new IOException("Too many levels of symbolic links: " + file);
+            path = path.resolveSibling(Files.readSymbolicLink(path));
+        }
+        return path.getParent().toRealPath().resolve(path.getFileName());
+    }
+
+    /**
+     * Replaces a file with a temporary file, keeping the permissions of the replaced file.
+     *
+     * @param temp The temporary file holding the new content
+     * @param file The file to replace
+     * @throws IOException if the file can't be replaced, in which case the temporary file is deleted
+     */
+    static void commit(Path temp, File file) throws IOException {
+        commit(temp, file, Durability.NONE);
+    }
+
+    /**
+     * Replaces a file with a temporary file, keeping the permissions of the replaced file,
+     * and syncs them to the storage as far as a durability level asks.
+     *
+     * @param temp The temporary file holding the new content
+     * @param file The file to replace
+     * @param durability What to sync
+     * @throws IOException if the file can't be replaced, in which case the temporary file is deleted;
+     *                     an {@link AtomicMoveNotSupportedException} if it can't be replaced atomically
+     */
+    static void commit(Path temp, File file, Durability durability) throws IOException {
+        final Path target;
+        try {
+            target = resolve(file);
+            copyPermissions(target, temp);
+            if (durability.syncsData()) {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            discard(temp);
+            throw e;
+        }
+        if (durability.syncsDirectory()) syncDirectory(target.toFile());
+    }
+
+    /**
+     * Replaces a file with the lines written by a writer.
+     *
+     * @param file The file to replace
+     * @param durability What to sync
+     * @param content Writes the new content of the file
+     * @throws IOException if the file can't be replaced, in which case it is left untouched
+     */
+    static void write(File file, Durability durability, Content content) throws IOException {
+        write(file, Charset.defaultCharset(), durability, content);
+    }
+
+    /**
+     * Replaces a file with the lines written by a writer encoding them with a charset.
+     * A compressed file (see {@link GzipFiles#isGzip(File)}) is replaced with a compressed file.
+     *
+     * @param file The file to replace
+     * @param charset The charset of the file
+     * @param durability What to sync
+     * @param content Writes the new content of the file
+     * @throws IOException if the file can't be replaced, in which case it is left untouched
+     */
+    static void write(File file, Charset charset, Durability durability, Content content) throws IOException {
+        final Path temp = createSibling(file);
+        try (BufferedWriter writer = newWriter(temp, charset, GzipFiles.isGzip(file))) {
+            content.writeTo(writer);
+        } catch (IOException | RuntimeException e) {
+            discard(temp);
+            throw e;
+        }
+        commit(temp, file, durability);
+    }
+
+    /**
+     * Opens a writer on a temporary file, compressing what it writes if asked.
+     */
+    private static BufferedWriter newWriter(Path temp, Charset charset, boolean compressed) throws IOException {
+        if (!compressed) return Files.newBufferedWriter(temp, charset);
+        return new BufferedWriter(new OutputStreamWriter(GzipFiles.compress(Files.newOutputStream(temp)), charset));
+    }
+
+    /**
+     * Syncs the directory of a file, making the creation, deletion or renaming of the file durable.
+     * Platforms that can't open directories, such as Windows, are skipped.
+     *
+     * @param file The file
+     * @throws IOException if the directory can't be synced
+     */
+    static void syncDirectory(File file) throws IOException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(resolve(file).getParent(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Deletes a temporary file, ignoring any error.
+     *
+     * @param temp The temporary file to delete, may be null
+     */
+    static void discard(Path temp) {
+        if (temp == null) return;
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    /**
+     * Writes the new content of a file.
+     */
+    interface Content {
+        void writeTo(BufferedWriter writer) throws IOException;
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        if (!Files.exists(source)) return;
+        final PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view == null) return;
+        final PosixFileAttributes attributes = Files.readAttributes(source, PosixFileAttributes.class);
+        view.setPermissions(attributes.permissions());
+        try {
+            if (!attributes.group().equals(view.readAttributes().group())) view.setGroup(attributes.group());
+            if (!attributes.owner().equals(view.readAttributes().owner())) view.setOwner(attributes.owner());
+        } catch (IOException | SecurityException notPermitted) {
+            // only a privileged process can give a file away
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package systemx.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A utility class running the same operation over many files.
+ * <p>
+ * Every file gets its own virtual thread, so tens of thousands of files can be processed without as many
+ * platform threads, while a semaphore bounds the number of files processed at once. The results are
+ * streamed back as soon as each file is done, in completion order, and a failing file doesn't stop the
+ * others: its exception is reported in its {@link FileResult}.
+ * <pre>{@code
+ * try (Stream<FileResult<Integer>> counts = BulkOperations.run(directory, FileManager::countLines)) {
+ *     counts.filter(FileResult::succeeded).forEach(result -> ...);
+ * }
+ * }</pre>
+ * Closing the stream stops starting new files.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class BulkOperations {
+    private BulkOperations() {}
+
+    /**
+     * The default number of files processed at once.
+     */
+    public static final int DEFAULT_CONCURRENCY = 64;
+
+    /**
+     * Runs an operation over files, processing {@link #DEFAULT_CONCURRENCY} files at once.
+     *
+     * @param files The files to run the operation on
+     * @param operation The operation to run
+     * @return The results, in completion order
+     * @param <R> The type of the result of the operation
+     */
+    public static <R> Stream<FileResult<R>> run(Collection<File> files, FileOperation<R> operation) {
+        return run(files, operation, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Runs an operation over the files of a directory, processing {@link #DEFAULT_CONCURRENCY} files at once.
+     * The subdirectories are ignored.
+     *
+     * @param directory The directory holding the files to run the operation on
+     * @param operation The operation to run
+     * @return The results, in completion order
+     * @param <R> The type of the result of the operation
+     * @throws DoNotExistsException if the directory does not exist
+     */
+    public static <R> Stream<FileResult<R>> run(File directory, FileOperation<R> operation) throws DoNotExistsException {
+        return run(directory, operation, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Runs an operation over the files of a directory. The subdirectories are ignored.
+     *
+     * @param directory The directory holding the files to run the operation on
+     * @param operation The operation to run
+     * @param concurrency The maximum number of files processed at once
+     * @return The results, in completion order
+     * @param <R> The type of the result of the operation
+     * @throws DoNotExistsException if the directory does not exist
+     * @throws IllegalArgumentException if the concurrency is not positive
+     */
+    public static <R> Stream<FileResult<R>> run(
+            File directory, FileOperation<R> operation, int concurrency
+    ) throws DoNotExistsException {
+        final File[] entries = PathResolver.getFilesInDirectory(directory);
+        if (entries == null) throw new DoNotExistsException(directory);
+        final List<File> files = new ArrayList<>(entries.length);
+        for (File entry : entries) {
+            if (entry.isFile()) files.add(entry);
+        }
+        return run(files, operation, concurrency);
+    }
+
+    /**
+     * Runs an operation over files.
+     *
+     * @param files The files to run the operation on
+     * @param operation The operation to run
+     * @param concurrency The maximum number of files processed at once
+     * @return The results, in completion order
+     * @param <R> The type of the result of the operation
+     * @throws IllegalArgumentException if the concurrency is not positive
+     */
+    public static <R> Stream<FileResult<R>> run(Collection<File> files, FileOperation<R> operation, int concurrency) {
+        if (concurrency <= 0) throw new IllegalArgumentException();
+        final List<File> targets = List.copyOf(files);
+        final BlockingQueue<FileResult<R>> results = new LinkedBlockingQueue<>();
+        final Semaphore permits = new Semaphore(concurrency);
+        final Thread launcher = Thread.ofVirtual().name("systemx-bulk").start(() -> {
+            for (File file : targets) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        results.add(new FileResult<>(file, operation.apply(file), null));
+                    } catch (Throwable e) {
+                        results.add(new FileResult<>(file, null, e));
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        });
+        final Spliterator<FileResult<R>> spliterator = new Spliterators.AbstractSpliterator<>(
+                targets.size(), Spliterator.SIZED | Spliterator.NONNULL
+        ) {
+            private int received;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super FileResult<R>> action) {
+                if (received == targets.size()) return false;
+                try {
+                    action.accept(results.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    launcher.interrupt();
+                    return false;
+                }
+                received++;
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(launcher::interrupt);
+    }
+}
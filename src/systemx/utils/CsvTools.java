@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Arrays;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Comparator;
 
 import systemx.exceptions.DoNotExistsException;
 
@@ -326,6 +327,51 @@ public final class CsvTools {
         FileManager.overrideFile(file, lines.toArray(new String[0]));
     }
 
+    /**
+     * Sorts the rows of a CSV file by the values of a column, keeping the header first.
+     * The file is sorted on the disk, so it doesn't have to fit in memory (see {@link ExternalSort}).
+     * @param file The CSV file
+     * @param columnIndex The index of the column to sort by, rows missing it coming first
+     * @throws DoNotExistsException If the file does not exist
+     */
+    public static void sortByColumn(File file, int columnIndex) throws DoNotExistsException {
+        sortByColumn(file, file, columnIndex, ExternalSort.DEFAULT_MEMORY_BUDGET, false);
+    }
+
+    /**
+     * Sorts the rows of a CSV file by the values of a column, keeping the header first.
+     * The file is sorted on the disk, so it doesn't have to fit in memory (see {@link ExternalSort}).
+     * @param file The CSV file
+     * @param output The file to write the sorted rows to, may be the CSV file
+     * @param columnIndex The index of the column to sort by, rows missing it coming first
+     * @param memoryBudget The estimated memory the rows held at once may use, in bytes
+     * @param compressRuns true to compress the runs spilled to the disk
+     * @throws DoNotExistsException If the file does not exist
+     */
+    public static void sortByColumn(File file, File output, int columnIndex,
+                                    long memoryBudget, boolean compressRuns) throws DoNotExistsException {
+        if (columnIndex < 0) throw new IllegalArgumentException("columnIndex must not be negative");
+        Comparator<String> byColumn = Comparator.comparing(line -> getCell(line, columnIndex),
+                Comparator.nullsFirst(Comparator.naturalOrder()));
+        ExternalSort.sort(file, output, byColumn, memoryBudget, compressRuns, 1);
+    }
+
+    /**
+     * Gets a cell of a row without splitting the whole row
+     * @param line The row
+     * @param columnIndex The index of the cell
+     * @return The cell, or null if the row has fewer cells
+     */
+    private static String getCell(String line, int columnIndex) {
+        int start = 0;
+        for (int i = 0; i < columnIndex; i++) {
+            start = line.indexOf(',', start) + 1;
+            if (start == 0) return null;
+        }
+        int end = line.indexOf(',', start);
+        return line.substring(start, end < 0 ? line.length() : end);
+    }
+
     /**
      * Overrides a CSV file with new file data
      * @param file The CSV file
@@ -0,0 +1,119 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Watches directories for changes on a daemon thread, through a {@link WatchService}.
+ * <p>
+ * The listener is told about every entry created, deleted or modified in a watched directory. When
+ * events have been lost, or when a directory can't be watched anymore, it is told that anything in the
+ * directory may have changed. Events are delivered shortly after the change, not synchronously, and
+ * how shortly depends on the platform: some of them poll the directories rather than being notified.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class DirectoryWatcher implements Closeable {
+
+    /**
+     * Receives the changes of the watched directories, on the thread of the watcher.
+     */
+    interface Listener {
+
+        /**
+         * An entry of a watched directory has been created, deleted or modified.
+         * @param directory The watched directory
+         * @param entry The path of the entry
+         */
+        void changed(Path directory, Path entry);
+
+        /**
+         * Events of a watched directory have been lost, or the directory isn't watched anymore.
+         * @param directory The directory
+         */
+        void lost(Path directory);
+    }
+
+    private final WatchService service;
+    private final Listener listener;
+    private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    private DirectoryWatcher(WatchService service, Listener listener) {
+        this.service = service;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "systemx-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts a watcher.
+     *
+     * @param listener The listener of the changes
+     * @return The watcher, watching no directory yet
+     * @throws IOException if the file system can't watch directories
+     */
+    static DirectoryWatcher start(Listener listener) throws IOException {
+        final DirectoryWatcher watcher = new DirectoryWatcher(FileSystems.getDefault().newWatchService(), listener);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    /**
+     * Watches a directory, if it isn't watched already.
+     *
+     * @param directory The directory to watch
+     * @return true if the directory is watched, false if it can't be
+     */
+    boolean watch(Path directory) {
+        final WatchKey key = keys.get(directory);
+        if (key != null && key.isValid()) return true;
+        try {
+            keys.put(directory, directory.register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY));
+            return true;
+        } catch (IOException | ClosedWatchServiceException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops watching every directory.
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                final WatchKey key = service.take();
+                final Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) listener.lost(directory);
+                    else listener.changed(directory, directory.resolve((Path) event.context()));
+                }
+                if (!key.reset()) {
+                    keys.remove(directory, key);
+                    listener.lost(directory);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+}
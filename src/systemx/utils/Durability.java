@@ -0,0 +1,58 @@
+package systemx.utils;
+
+
+/**
+ * How far a file replaced atomically is synced to the storage before the write returns.
+ * <p>
+ * Whatever the level, the new content is written to a temporary file next to the file, which is then
+ * moved over the file in one step, so a crash leaves either the old or the new content, never a mix.
+ * The level only decides whether that content, and the rename itself, survive a power loss.
+ * The one exception is {@link #IN_PLACE_TAIL}, which gives up that guarantee for the line edits at the end
+ * of a file to make them cheaper.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public enum Durability {
+
+    /**
+     * Nothing is synced: the operating system writes the file back when it sees fit.
+     */
+    NONE,
+
+    /**
+     * The content of the temporary file is synced before it replaces the file, so the file never
+     * ends up empty or partially written after a power loss. The rename itself may still be lost.
+     */
+    DATA,
+
+    /**
+     * The content is synced, then the directory of the file is synced after the rename, so the new
+     * content is on the storage once the write returns. On platforms where directories can't be
+     * synced, this is the same as {@link #DATA}.
+     */
+    DATA_AND_DIRECTORY,
+
+    /**
+     * The line edits of {@link FileManager} close enough to the end of the file are done in place, truncating
+     * the file at the first edited line and appending the new lines followed by the lines after the edit,
+     * which only costs the size of the change. This isn't crash safe: a crash during the edit may leave the
+     * file truncated. Other edits and writes replace the file atomically without syncing it, as with
+     * {@link #NONE}.
+     */
+    IN_PLACE_TAIL;
+
+    /**
+     * Tells whether the content of the temporary file is synced before it replaces the file.
+     */
+    boolean syncsData() {
+        return this == DATA || this == DATA_AND_DIRECTORY;
+    }
+
+    /**
+     * Tells whether the directory of the file is synced after the rename.
+     */
+    boolean syncsDirectory() {
+        return this == DATA_AND_DIRECTORY;
+    }
+}
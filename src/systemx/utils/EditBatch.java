@@ -0,0 +1,237 @@
+package systemx.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A batch of line edits applied to a file in a single pass.
+ * <p>
+ * Edits are queued, then sorted by position and applied all at once by {@link #apply()}, which
+ * streams the file into a temporary file and replaces the file with it atomically. The lines
+ * between the edits are copied byte for byte, located through the {@link LineIndex} of the file,
+ * so the memory used doesn't depend on the size of the file. A compressed file is streamed through its
+ * decompressed lines instead, and replaced with a compressed file.
+ * <p>
+ * Line numbers start from 1 and always refer to the file as it was before the batch is applied,
+ * so queuing an edit never shifts the line numbers of the other edits.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#edit(File)
+ */
+public final class EditBatch {
+    private final File file;
+    private final List<Edit> edits = new ArrayList<>();
+
+    /**
+     * Creates an empty batch of edits.
+     * @param file The file to edit
+     */
+    EditBatch(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Queues the insertion of a line.
+     * @param lineNumber The line number to insert at
+     * @param line The line to insert
+     * @return This batch
+     * @throws IndexOutOfBoundsException if the line number is lower than 1
+     */
+    public EditBatch insertLine(int lineNumber, String line) {
+        return insertLines(lineNumber, new String[]{line});
+    }
+
+    /**
+     * Queues the insertion of lines.
+     * @param lineNumber The line number to insert at
+     * @param lines The lines to insert
+     * @return This batch
+     * @throws IndexOutOfBoundsException if the line number is lower than 1
+     */
+    public EditBatch insertLines(int lineNumber, String[] lines) {
+        return add(lineNumber, lineNumber - 1, lines);
+    }
+
+    /**
+     * Queues the override of a line.
+     * @param lineNumber The line number to override
+     * @param line The new line
+     * @return This batch
+     * @throws IndexOutOfBoundsException if the line number is lower than 1
+     */
+    public EditBatch overrideLine(int lineNumber, String line) {
+        return add(lineNumber, lineNumber, new String[]{line});
+    }
+
+    /**
+     * Queues the override of a section.
+     * @param start The line number to start overriding from
+     * @param end The line number to stop overriding at
+     * @param lines The lines replacing the section, which may be more or less than the lines of the section
+     * @return This batch
+     * @throws IndexOutOfBoundsException if the line numbers are lower than 1 or {@code end < start}
+     */
+    public EditBatch overrideSection(int start, int end, String[] lines) {
+        if (end < start) throw new IndexOutOfBoundsException();
+        return add(start, end, lines);
+    }
+
+    /**
+     * Queues the deletion of a line.
+     * @param lineNumber The line number to delete
+     * @return This batch
+     * @throws IndexOutOfBoundsException if the line number is lower than 1
+     */
+    public EditBatch deleteLine(int lineNumber) {
+        return add(lineNumber, lineNumber, new String[0]);
+    }
+
+    /**
+     * Queues the deletion of a section.
+     * @param start The line number to start deleting from
+     * @param end The line number to stop deleting at
+     * @return This batch
+     * @throws IndexOutOfBoundsException if the line numbers are lower than 1 or {@code end < start}
+     */
+    public EditBatch deleteSection(int start, int end) {
+        if (end < start) throw new IndexOutOfBoundsException();
+        return add(start, end, new String[0]);
+    }
+
+    /**
+     * Gets the number of queued edits.
+     * @return The number of edits
+     */
+    public int size() {
+        return edits.size();
+    }
+
+    /**
+     * Applies the queued edits to the file, then clears the batch.
+     * <p>
+     * The file is left untouched if any edit can't be applied.
+     *
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if an edit is out of the bounds of the file
+     * @throws IllegalArgumentException if edits overlap
+     */
+    public void apply() throws DoNotExistsException {
+        apply(Durability.NONE);
+    }
+
+    /**
+     * Applies the queued edits to the file, syncing it as far as a durability level asks, then clears the batch.
+     * <p>
+     * The file is left untouched if any edit can't be applied.
+     *
+     * @param durability What to sync before returning
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if an edit is out of the bounds of the file
+     * @throws IllegalArgumentException if edits overlap
+     */
+    public void apply(Durability durability) throws DoNotExistsException {
+        final List<Edit> sorted = sorted();
+        if (GzipFiles.isGzip(file)) {
+            applyCompressed(sorted, durability);
+            edits.clear();
+            return;
+        }
+        try (LineIndex index = LineIndex.open(file)) {
+            for (Edit edit : sorted) {
+                if (edit.start > index.lineCount() || edit.end > index.lineCount()) throw new IndexOutOfBoundsException();
+            }
+            try (FileRewriter rewriter = FileRewriter.open(file, durability)) {
+                long position = 0;
+                for (Edit edit : sorted) {
+                    rewriter.copy(position, index.startOf(edit.start - 1));
+                    for (String line : edit.lines) rewriter.write(line);
+                    position = index.startOf(edit.end);
+                }
+                rewriter.copy(position, index.length());
+                rewriter.commit();
+            }
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+        edits.clear();
+    }
+
+    /**
+     * Applies sorted edits to a compressed file, streaming its decompressed content into a new compressed file.
+     */
+    private void applyCompressed(List<Edit> sorted, Durability durability) throws DoNotExistsException {
+        int last = 0;
+        for (Edit edit : sorted) last = Math.max(last, Math.max(edit.start, edit.end));
+        final int lastLine = last;
+        try (BufferedReader reader = FileManager.openReader(file, 0)) {
+            AtomicFiles.write(file, durability, writer -> {
+                final Iterator<Edit> pending = sorted.iterator();
+                Edit edit = pending.hasNext() ? pending.next() : null;
+                int skipUntil = 0;
+                int lineNumber = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    while (edit != null && edit.start == lineNumber) {
+                        for (String newLine : edit.lines) {
+                            writer.write(newLine);
+                            writer.newLine();
+                        }
+                        skipUntil = Math.max(skipUntil, edit.end);
+                        edit = pending.hasNext() ? pending.next() : null;
+                    }
+                    if (lineNumber > skipUntil) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                }
+                if (lastLine > lineNumber) throw new IndexOutOfBoundsException();
+            });
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        } finally {
+            FileManager.changed(file);
+        }
+    }
+
+    private EditBatch add(int start, int end, String[] lines) {
+        if (start < 1) throw new IndexOutOfBoundsException();
+        edits.add(new Edit(start, end, lines.clone(), edits.size()));
+        return this;
+    }
+
+    /**
+     * Sorts the edits by position, insertions first, and checks that they don't overlap.
+     */
+    private List<Edit> sorted() {
+        final List<Edit> sorted = new ArrayList<>(edits);
+        sorted.sort(Comparator.comparingInt(Edit::start)
+                .thenComparing(Edit::isInsertion, Comparator.reverseOrder())
+                .thenComparingInt(Edit::order));
+        int coveredUntil = 0;
+        for (Edit edit : sorted) {
+            if (edit.start <= coveredUntil) throw new IllegalArgumentException("Overlapping edits at line " + edit.start);
+            coveredUntil = Math.max(coveredUntil, edit.end);
+        }
+        return sorted;
+    }
+
+    /**
+     * An edit replacing the lines from {@code start} to {@code end} with new lines.
+     * An insertion has {@code end == start - 1}.
+     */
+    private record Edit(int start, int end, String[] lines, int order) {
+        boolean isInsertion() {
+            return end < start;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * A file edited in memory through a piece table.
+ * <p>
+ * The content of the file is described by a sequence of pieces, each one being a run of lines either
+ * from the original file, mapped read-only in memory, or from an append-only buffer holding every line
+ * added since. Inserting, overriding or deleting lines only splits and joins pieces, which are kept in
+ * a balanced tree ordered by line number, so an edit costs {@code O(log n)} whatever the size of the file.
+ * <p>
+ * Nothing is written until {@link #flush()} writes the whole content in one sequential pass, copying the
+ * untouched runs of the original file byte for byte. Unflushed edits are lost when the file is closed.
+ * Line numbers start from 1, like the line edits of {@link FileManager}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class EditableFile implements Closeable {
+    private final File file;
+    private final SplittableRandom random = new SplittableRandom();
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] separator = System.lineSeparator().getBytes(charset);
+
+    private MappedLineReader original;
+    private LineIndex index;
+    private Piece root;
+
+    private byte[] added = new byte[1024];
+    private int[] addedStarts = new int[64];
+    private int addedLines;
+
+    private EditableFile(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Opens a file for editing.
+     *
+     * @param file The file to edit
+     * @return The editable file
+     * @throws IOException if the file can't be read or is compressed
+     */
+    public static EditableFile open(File file) throws IOException {
+        if (GzipFiles.isGzip(file)) throw new IOException("Compressed files can't be edited in memory: " + file);
+        return new EditableFile(file);
+    }
+
+    /**
+     * Gets the number of lines of the edited content.
+     * @return The number of lines
+     */
+    public long lineCount() {
+        return total(root);
+    }
+
+    /**
+     * Gets a line of the edited content.
+     * @param lineNumber The line number to get
+     * @return The line
+     * @throws IOException if the original file can't be read
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public String getLine(long lineNumber) throws IOException {
+        checkLine(lineNumber);
+        long local = lineNumber - 1;
+        Piece piece = root;
+        while (true) {
+            final long left = total(piece.left);
+            if (local < left) {
+                piece = piece.left;
+            } else if (local < left + piece.count) {
+                local -= left;
+                break;
+            } else {
+                local -= left + piece.count;
+                piece = piece.right;
+            }
+        }
+        final long line = piece.first + local;
+        if (piece.original) return original.lineAt(index.startOf(line));
+        final int start = addedStarts[(int) line];
+        return new String(added, start, addedStarts[(int) line + 1] - start - separator.length, charset);
+    }
+
+    /**
+     * Inserts a line.
+     * @param line The line to insert
+     * @param lineNumber The line number to insert at
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void insertLine(String line, long lineNumber) {
+        insertLines(new String[]{line}, lineNumber);
+    }
+
+    /**
+     * Inserts lines.
+     * @param lines The lines to insert
+     * @param lineNumber The line number to insert at
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void insertLines(String[] lines, long lineNumber) {
+        checkLine(lineNumber);
+        insert(lines, lineNumber);
+    }
+
+    /**
+     * Overrides a line.
+     * @param lineNumber The line number to override
+     * @param newLine The new line
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void overrideLine(long lineNumber, String newLine) {
+        overrideSection(lineNumber, lineNumber, new String[]{newLine});
+    }
+
+    /**
+     * Overrides a section with lines, which may be more or less than the lines of the section.
+     * @param start The line number to start overriding from
+     * @param end The line number to stop overriding at
+     * @param newLines The lines replacing the section
+     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     */
+    public void overrideSection(long start, long end, String[] newLines) {
+        deleteSection(start, end);
+        insert(newLines, start);
+    }
+
+    /**
+     * Deletes a line.
+     * @param lineNumber The line number to delete
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void deleteLine(long lineNumber) {
+        deleteSection(lineNumber, lineNumber);
+    }
+
+    /**
+     * Deletes a section.
+     * @param start The line number to start deleting from
+     * @param end The line number to stop deleting at
+     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     */
+    public void deleteSection(long start, long end) {
+        checkLine(start);
+        checkLine(end);
+        if (end < start) throw new IndexOutOfBoundsException();
+        final Piece[] head = split(root, start - 1);
+        final Piece[] tail = split(head[1], end - start + 1);
+        root = merge(head[0], tail[1]);
+    }
+
+    /**
+     * Writes the edited content to the file, in one sequential pass.
+     * <p>
+     * The file is replaced atomically, and the editing carries on from its new content.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public void flush() throws IOException {
+        flush(Durability.NONE);
+    }
+
+    /**
+     * Writes the edited content to the file, in one sequential pass, syncing it as far as a durability level asks.
+     *
+     * @param durability What to sync before returning
+     * @throws IOException if the file can't be written
+     */
+    public void flush(Durability durability) throws IOException {
+        try (FileRewriter rewriter = FileRewriter.open(file, durability)) {
+            write(rewriter, root, 0);
+            rewriter.commit();
+        }
+        release();
+        load();
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+    }
+
+    private void load() throws IOException {
+        original = MappedLineReader.open(file);
+        try {
+            index = LineIndex.open(file);
+        } catch (IOException e) {
+            original.close();
+            throw e;
+        }
+        added = new byte[1024];
+        addedStarts = new int[64];
+        addedLines = 0;
+        root = index.lineCount() > 0 ? new Piece(true, 0, index.lineCount(), random.nextInt()) : null;
+    }
+
+    private void release() throws IOException {
+        try {
+            index.close();
+        } finally {
+            original.close();
+        }
+    }
+
+    private void checkLine(long lineNumber) {
+        if (lineNumber < 1 || lineNumber > lineCount()) throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * Appends lines to the added buffer and inserts a piece holding them before a line.
+     */
+    private void insert(String[] lines, long lineNumber) {
+        if (lines.length == 0) return;
+        final int first = addedLines;
+        for (String line : lines) append(line.getBytes(charset));
+        final Piece piece = new Piece(false, first, lines.length, random.nextInt());
+        final Piece[] parts = split(root, lineNumber - 1);
+        root = merge(merge(parts[0], piece), parts[1]);
+    }
+
+    private void append(byte[] line) {
+        final int start = addedStarts[addedLines];
+        final int end = Math.addExact(Math.addExact(start, line.length), separator.length);
+        if (end > added.length) added = Arrays.copyOf(added, Math.max(end, added.length * 2));
+        if (addedLines + 2 > addedStarts.length) addedStarts = Arrays.copyOf(addedStarts, addedStarts.length * 2);
+        System.arraycopy(line, 0, added, start, line.length);
+        System.arraycopy(separator, 0, added, start + line.length, separator.length);
+        addedStarts[addedLines] = start;
+        addedStarts[++addedLines] = end;
+    }
+
+    /**
+     * Writes the pieces of a subtree in order.
+     * The last line of the original file gets a line separator if it lacks one and isn't the last line anymore.
+     *
+     * @param written The number of lines written before the subtree
+     * @return The number of lines written after the subtree
+     */
+    private long write(FileRewriter rewriter, Piece piece, long written) throws IOException {
+        if (piece == null) return written;
+        written = write(rewriter, piece.left, written) + piece.count;
+        if (piece.original) {
+            final long end = piece.first + piece.count;
+            rewriter.copy(index.startOf(piece.first), index.startOf(end));
+            if (end == index.lineCount() && written < lineCount() && !original.endsWithTerminator()) rewriter.endLine();
+        } else {
+            final int start = addedStarts[(int) piece.first];
+            rewriter.write(added, start, addedStarts[(int) (piece.first + piece.count)] - start);
+        }
+        return write(rewriter, piece.right, written);
+    }
+
+    private static long total(Piece piece) {
+        return piece == null ? 0 : piece.total;
+    }
+
+    /**
+     * Splits a subtree in two, the first part holding its first {@code lines} lines.
+     * A piece straddling the split point is cut in two pieces.
+     */
+    private Piece[] split(Piece piece, long lines) {
+        if (piece == null) return new Piece[2];
+        final long left = total(piece.left);
+        if (lines <= left) {
+            final Piece[] parts = split(piece.left, lines);
+            piece.left = parts[1];
+            piece.update();
+            return new Piece[]{parts[0], piece};
+        }
+        if (lines >= left + piece.count) {
+            final Piece[] parts = split(piece.right, lines - left - piece.count);
+            piece.right = parts[0];
+            piece.update();
+            return new Piece[]{piece, parts[1]};
+        }
+        final long local = lines - left;
+        final Piece tail = new Piece(piece.original, piece.first + local, piece.count - local, random.nextInt());
+        final Piece right = piece.right;
+        piece.count = local;
+        piece.right = null;
+        piece.update();
+        return new Piece[]{piece, merge(tail, right)};
+    }
+
+    /**
+     * Joins two subtrees, every line of the first one coming before the lines of the second one.
+     */
+    private static Piece merge(Piece left, Piece right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    /**
+     * A run of consecutive lines, either from the original file or from the added buffer.
+     */
+    private static final class Piece {
+        final boolean original;
+        final long first;
+        final int priority;
+        long count;
+        long total;
+        Piece left;
+        Piece right;
+
+        Piece(boolean original, long first, long count, int priority) {
+            this.original = original;
+            this.first = first;
+            this.count = count;
+            this.priority = priority;
+            this.total = count;
+        }
+
+        void update() {
+            total = count + total(left) + total(right);
+        }
+    }
+}
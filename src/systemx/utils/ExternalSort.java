@@ -0,0 +1,378 @@
+package systemx.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A utility class sorting the lines of files that don't fit in memory.
+ * <p>
+ * The lines are read in batches bounded by a memory budget. Each batch is sorted on a worker thread and
+ * spilled to a temporary file, a run, while the next batch is being read, so at most one batch per worker
+ * and the one being read are held at once. The runs are then merged with a heap, a few at a time if there
+ * are too many of them to be opened together. When the whole file fits in one batch, it is sorted in
+ * memory and nothing is spilled.
+ * <p>
+ * The sort is stable: equal lines keep their order. The runs are written next to the sorted file, so
+ * they are on the same device, and can be compressed to save disk space and bandwidth at the cost of CPU.
+ * The sorted file is replaced atomically, so the input file can be sorted in place. A compressed input is
+ * decompressed as it is read, and a compressed output is written compressed (see {@link GzipFiles}).
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class ExternalSort {
+    // Prevent instantiation
+    private ExternalSort() {}
+
+    /**
+     * The default memory budget of a sort, in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    /**
+     * The estimated memory used by a line besides its characters: the string, its array and the reference.
+     */
+    private static final long LINE_OVERHEAD = 56;
+
+    /**
+     * The maximum number of runs merged at once.
+     */
+    private static final int MAX_FAN_IN = 128;
+
+    /**
+     * The suffix of the runs.
+     */
+    static final String RUN_SUFFIX = ".run";
+
+    private static final int MIN_BUFFER_SIZE = 8 << 10;
+    private static final int MAX_BUFFER_SIZE = 1 << 20;
+    private static final int WRITE_BUFFER_SIZE = 64 << 10;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * Sorts the lines of a file in their natural order, within the default memory budget.
+     *
+     * @param input The file to sort
+     * @param output The file to write the sorted lines to, may be the input file
+     * @throws DoNotExistsException if the input file can't be read or the output file can't be written
+     */
+    public static void sort(File input, File output) throws DoNotExistsException {
+        sort(input, output, Comparator.naturalOrder());
+    }
+
+    /**
+     * Sorts the lines of a file within the default memory budget.
+     *
+     * @param input The file to sort
+     * @param output The file to write the sorted lines to, may be the input file
+     * @param comparator The order of the lines
+     * @throws DoNotExistsException if the input file can't be read or the output file can't be written
+     */
+    public static void sort(File input, File output, Comparator<? super String> comparator) throws DoNotExistsException {
+        sort(input, output, comparator, DEFAULT_MEMORY_BUDGET, false);
+    }
+
+    /**
+     * Sorts the lines of a file.
+     *
+     * @param input The file to sort
+     * @param output The file to write the sorted lines to, may be the input file
+     * @param comparator The order of the lines
+     * @param memoryBudget The estimated memory the lines held at once may use, in bytes
+     * @param compressRuns true to compress the runs spilled to the disk
+     * @throws DoNotExistsException if the input file can't be read or the output file can't be written
+     * @throws IllegalArgumentException if the memory budget isn't positive
+     */
+    public static void sort(File input, File output, Comparator<? super String> comparator,
+                            long memoryBudget, boolean compressRuns) throws DoNotExistsException {
+        sort(input, output, comparator, memoryBudget, compressRuns, 0);
+    }
+
+    /**
+     * Sorts the lines of a file, keeping its first lines in place.
+     *
+     * @param input The file to sort
+     * @param output The file to write the sorted lines to, may be the input file
+     * @param comparator The order of the lines
+     * @param memoryBudget The estimated memory the lines held at once may use, in bytes
+     * @param compressRuns true to compress the runs spilled to the disk
+     * @param headerLines The number of lines at the start of the file written first, unsorted
+     * @throws DoNotExistsException if the input file can't be read or the output file can't be written
+     * @throws IllegalArgumentException if the memory budget isn't positive
+     */
+    static void sort(File input, File output, Comparator<? super String> comparator,
+                     long memoryBudget, boolean compressRuns, int headerLines) throws DoNotExistsException {
+        if (memoryBudget <= 0) throw new IllegalArgumentException("memoryBudget must be positive");
+        if (!input.isFile()) throw new DoNotExistsException(input);
+        try (Sorter sorter = new Sorter(output, comparator, memoryBudget, compressRuns)) {
+            sorter.sort(input, headerLines);
+        } catch (IOException e) {
+            throw new DoNotExistsException(input);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DoNotExistsException(input);
+        } finally {
+            FileManager.changed(output);
+        }
+    }
+
+    /**
+     * The state of one sort: its workers and the runs spilled so far.
+     */
+    private static final class Sorter implements AutoCloseable {
+        private final File output;
+        private final Path directory;
+        private final Comparator<? super String> comparator;
+        private final long memoryBudget;
+        private final boolean compressRuns;
+        private final int workers = Runtime.getRuntime().availableProcessors();
+        private final ExecutorService executor = Executors.newFixedThreadPool(workers, Thread.ofPlatform().daemon().factory());
+        private final Semaphore batches = new Semaphore(workers);
+        private final List<Path> temporaries = new ArrayList<>();
+
+        Sorter(File output, Comparator<? super String> comparator, long memoryBudget, boolean compressRuns) {
+            this.output = output.getAbsoluteFile();
+            this.directory = this.output.getParentFile().toPath();
+            this.comparator = comparator;
+            this.memoryBudget = memoryBudget;
+            this.compressRuns = compressRuns;
+        }
+
+        void sort(File input, int headerLines) throws IOException, InterruptedException {
+            final long batchBudget = Math.max(1, memoryBudget / (workers + 1));
+            final List<String> header = new ArrayList<>(headerLines);
+            final List<Path> runs = new ArrayList<>();
+            final List<Future<?>> spills = new ArrayList<>();
+            List<String> batch = new ArrayList<>();
+            try (BufferedReader reader = FileManager.openReader(input, 0)) {
+                String line;
+                while (header.size() < headerLines && (line = reader.readLine()) != null) header.add(line);
+                long bytes = 0;
+                while ((line = reader.readLine()) != null) {
+                    batch.add(line);
+                    bytes += LINE_OVERHEAD + 2L * line.length();
+                    if (bytes >= batchBudget) {
+                        spills.add(spill(batch, runs));
+                        batch = new ArrayList<>();
+                        bytes = 0;
+                    }
+                }
+            }
+
+            if (spills.isEmpty()) {
+                batch.sort(comparator);
+                write(header, batch);
+                return;
+            }
+            if (!batch.isEmpty()) spills.add(spill(batch, runs));
+            for (Future<?> spill : spills) await(spill);
+
+            final int bufferSize = bufferSize(Math.min(runs.size(), MAX_FAN_IN));
+            while (runs.size() > MAX_FAN_IN) {
+                final List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                    final List<Path> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+                    final Path run = createRun();
+                    merged.add(run);
+                    try (Writer writer = runWriter(run)) {
+                        merge(group, bufferSize, writer, "\n");
+                    }
+                    for (Path path : group) AtomicFiles.discard(path);
+                }
+                runs.clear();
+                runs.addAll(merged);
+            }
+
+            final Path temp = AtomicFiles.createSibling(output);
+            try (Writer writer = outputWriter(temp)) {
+                for (String line : header) writeLine(writer, line, System.lineSeparator());
+                merge(runs, bufferSize, writer, System.lineSeparator());
+            } catch (IOException | RuntimeException e) {
+                AtomicFiles.discard(temp);
+                throw e;
+            }
+            AtomicFiles.commit(temp, output);
+        }
+
+        /**
+         * Stops the workers and deletes the runs left.
+         */
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            executor.close();
+            for (Path temporary : temporaries) AtomicFiles.discard(temporary);
+        }
+
+        /**
+         * Sorts a batch and writes it to a new run, on a worker.
+         * The run is created first, so the runs are listed in the order of the file.
+         */
+        private Future<?> spill(List<String> batch, List<Path> runs) throws IOException, InterruptedException {
+            final Path run = createRun();
+            runs.add(run);
+            batches.acquire();
+            try {
+                return executor.submit(() -> {
+                    try (Writer writer = runWriter(run)) {
+                        batch.sort(comparator);
+                        for (String line : batch) writeLine(writer, line, "\n");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        batches.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                batches.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Merges runs into a writer, the lines of the earlier runs coming first among equal lines.
+         */
+        private void merge(List<Path> group, int bufferSize, Writer writer, String separator) throws IOException {
+            final PriorityQueue<Cursor> heap = new PriorityQueue<>(group.size(), (a, b) -> {
+                final int order = comparator.compare(a.line, b.line);
+                return order != 0 ? order : Integer.compare(a.run, b.run);
+            });
+            final List<Cursor> cursors = new ArrayList<>(group.size());
+            try {
+                for (int i = 0; i < group.size(); i++) {
+                    final Cursor cursor = new Cursor(i, runReader(group.get(i), bufferSize));
+                    cursors.add(cursor);
+                    if (cursor.next()) heap.add(cursor);
+                }
+                Cursor cursor;
+                while ((cursor = heap.poll()) != null) {
+                    writeLine(writer, cursor.line, separator);
+                    if (cursor.next()) heap.add(cursor);
+                }
+            } finally {
+                for (Cursor cursor : cursors) cursor.reader.close();
+            }
+        }
+
+        private void write(List<String> header, List<String> lines) throws IOException {
+            final Path temp = AtomicFiles.createSibling(output);
+            try (Writer writer = outputWriter(temp)) {
+                for (String line : header) writeLine(writer, line, System.lineSeparator());
+                for (String line : lines) writeLine(writer, line, System.lineSeparator());
+            } catch (IOException | RuntimeException e) {
+                AtomicFiles.discard(temp);
+                throw e;
+            }
+            AtomicFiles.commit(temp, output);
+        }
+
+        private Path createRun() throws IOException {
+            final Path run = Files.createTempFile(directory, "." + output.getName() + ".", RUN_SUFFIX);
+            temporaries.add(run);
+            return run;
+        }
+
+        private Writer runWriter(Path run) throws IOException {
+            // not created again if the sort has been given up and the run deleted
+            OutputStream stream = Files.newOutputStream(run, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (compressRuns) {
+                try {
+                    stream = new GZIPOutputStream(stream, MIN_BUFFER_SIZE);
+                } catch (IOException e) {
+                    stream.close();
+                    throw e;
+                }
+            }
+            return new BufferedWriter(new OutputStreamWriter(stream, CHARSET), WRITE_BUFFER_SIZE);
+        }
+
+        private BufferedReader runReader(Path run, int bufferSize) throws IOException {
+            InputStream stream = Files.newInputStream(run);
+            if (compressRuns) {
+                try {
+                    stream = new GZIPInputStream(stream, MIN_BUFFER_SIZE);
+                } catch (IOException e) {
+                    stream.close();
+                    throw e;
+                }
+            }
+            return new BufferedReader(new InputStreamReader(stream, CHARSET), bufferSize);
+        }
+
+        private Writer outputWriter(Path temp) throws IOException {
+            OutputStream stream = Files.newOutputStream(temp);
+            if (GzipFiles.isGzip(output)) stream = GzipFiles.compress(stream);
+            return new BufferedWriter(new OutputStreamWriter(stream, CHARSET), WRITE_BUFFER_SIZE);
+        }
+
+        /**
+         * Splits the memory budget between the readers of the runs merged at once.
+         */
+        private int bufferSize(int readers) {
+            final long share = memoryBudget / (2L * Math.max(1, readers));
+            return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, share));
+        }
+
+        private static void writeLine(Writer writer, String line, String separator) throws IOException {
+            writer.write(line);
+            writer.write(separator);
+        }
+
+        private static void await(Future<?> spill) throws IOException, InterruptedException {
+            try {
+                spill.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException unchecked) throw unchecked.getCause();
+                if (cause instanceof RuntimeException runtime) throw runtime;
+                if (cause instanceof Error error) throw error;
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * The next line of a run being merged.
+     */
+    private static final class Cursor {
+        final int run;
+        final BufferedReader reader;
+        String line;
+
+        Cursor(int run, BufferedReader reader) {
+            this.run = run;
+            this.reader = reader;
+        }
+
+        boolean next() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+    }
+}
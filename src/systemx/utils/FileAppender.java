@@ -0,0 +1,251 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A long-lived handle appending lines to a file.
+ * <p>
+ * The file is kept open and the appended lines are gathered in a buffer, which is written to the file
+ * in a single call (a group commit) when it is full, when the flush interval has elapsed, or when the
+ * appender is flushed or closed. This avoids opening and closing the file for every line.
+ * <p>
+ * An appender can be shared between threads: every line is appended as a whole,
+ * never interleaved with the lines of another thread.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#openAppender(File)
+ */
+public final class FileAppender implements Closeable {
+
+    /**
+     * When the appended lines are forced to the storage device.
+     */
+    public enum SyncPolicy {
+        /**
+         * Never force the lines, leaving it to the operating system.
+         */
+        NEVER,
+        /**
+         * Force the lines after every group commit.
+         */
+        ON_COMMIT,
+        /**
+         * Force the lines once, when the appender is closed.
+         */
+        ON_CLOSE
+    }
+
+    /**
+     * The default size of the buffer, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+
+    /**
+     * The default maximum time a line stays in the buffer, in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 200;
+
+    /**
+     * The thread committing the buffers of all the appenders on time.
+     */
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "systemx-appender-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final SyncPolicy syncPolicy;
+    private final ScheduledFuture<?> flusher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] separator = System.lineSeparator().getBytes(charset);
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Opens an appender with the default buffer size and flush interval, never forcing the lines.
+     *
+     * @param file The file to append to, created if it does not exist
+     * @throws DoNotExistsException if the file can't be opened
+     */
+    public FileAppender(File file) throws DoNotExistsException {
+        this(file, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL, SyncPolicy.NEVER);
+    }
+
+    /**
+     * Opens an appender.
+     *
+     * @param file The file to append to, created if it does not exist
+     * @param bufferSize The size of the buffer, in bytes
+     * @param flushInterval The maximum time a line stays in the buffer, in milliseconds, 0 to only commit full buffers
+     * @param syncPolicy When the lines are forced to the storage device
+     * @throws DoNotExistsException if the file can't be opened
+     * @throws IllegalArgumentException if the buffer size or the flush interval are not positive, or the file is compressed
+     */
+    public FileAppender(File file, int bufferSize, long flushInterval, SyncPolicy syncPolicy) throws DoNotExistsException {
+        if (bufferSize <= 0 || flushInterval < 0) throw new IllegalArgumentException();
+        this.file = file;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.syncPolicy = syncPolicy;
+        if (GzipFiles.isGzip(file)) throw new IllegalArgumentException("Compressed files can't be appended to: " + file);
+        if (FileManager.lineCheck(file)) throw new DoNotExistsException(file);
+        try {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+        this.flusher = flushInterval == 0 ? null : FLUSHER.scheduleWithFixedDelay(
+                this::commitQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Appends a line.
+     *
+     * @param line The line to append
+     * @throws IOException if the appender is closed or a previous commit failed
+     */
+    public void append(String line) throws IOException {
+        append(new String[]{line});
+    }
+
+    /**
+     * Appends lines, next to each other.
+     *
+     * @param lines The lines to append
+     * @throws IOException if the appender is closed or a previous commit failed
+     */
+    public void append(String[] lines) throws IOException {
+        final byte[][] encoded = new byte[lines.length][];
+        int size = 0;
+        for (int i = 0; i < lines.length; i++) {
+            encoded[i] = lines[i].getBytes(charset);
+            size += encoded[i].length + separator.length;
+        }
+        lock.lock();
+        try {
+            checkOpen();
+            if (size > buffer.remaining()) commit();
+            if (size > buffer.capacity()) {
+                writeDirectly(encoded, size);
+                return;
+            }
+            for (byte[] line : encoded) buffer.put(line).put(separator);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits the buffered lines to the file, forcing them if the sync policy says so.
+     *
+     * @throws IOException if the lines can't be written
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            commit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits the buffered lines and closes the file.
+     *
+     * @throws IOException if the lines can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            if (flusher != null) flusher.cancel(false);
+            try {
+                if (failure != null) throw failure;
+                commit();
+                if (syncPolicy == SyncPolicy.ON_CLOSE) channel.force(false);
+            } finally {
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("Appender closed: " + file);
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Writes the buffer to the file. Must be called holding the lock.
+     */
+    private void commit() throws IOException {
+        if (buffer.position() == 0) return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            if (syncPolicy == SyncPolicy.ON_COMMIT) channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            buffer.clear();
+            FileManager.changed(file);
+        }
+    }
+
+    /**
+     * Writes lines that don't fit in the buffer straight to the file. Must be called holding the lock.
+     */
+    private void writeDirectly(byte[][] lines, int size) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(size);
+        for (byte[] line : lines) bytes.put(line).put(separator);
+        bytes.flip();
+        try {
+            while (bytes.hasRemaining()) channel.write(bytes);
+            if (syncPolicy == SyncPolicy.ON_COMMIT) channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            FileManager.changed(file);
+        }
+    }
+
+    /**
+     * Commits the buffer on time, keeping any failure for the next call of the appender.
+     */
+    private void commitQuietly() {
+        if (!lock.tryLock()) return;
+        try {
+            if (!closed && failure == null) commit();
+        } catch (IOException ignored) {
+            // kept in failure
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * Follows a growing file, like {@code tail -f}, delivering the lines appended to it.
+ * <p>
+ * The file is polled on a virtual thread. Only the bytes appended since the last poll are read, starting
+ * from the last byte offset reached, and the lines they complete are delivered in batches. An unterminated
+ * last line is kept until its line terminator is appended. Lines are delimited the same way as
+ * {@link java.io.BufferedReader#readLine()} does: by {@code '\n'}, {@code '\r'} or {@code "\r\n"}.
+ * <p>
+ * When the file shrinks, it has been truncated and is followed again from its start. When the path leads
+ * to another file (a different file key), the file has been rotated: the rest of the old file is delivered,
+ * then the new file is followed from its start. Both are reported to {@link LineListener#onReset()}.
+ * An exception thrown by the listener stops the follower, and is rethrown by {@link #close()} wrapped in an
+ * {@link IOException}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#follow(File, LineListener)
+ */
+public final class FileFollower implements Closeable {
+
+    /**
+     * The default time between two polls of the file, in milliseconds.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 250;
+
+    /**
+     * The size of the buffer the appended bytes are read in, which bounds the size of a batch.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final Path path;
+    private final LineListener listener;
+    private final long pollNanos;
+    private final Thread thread;
+    private final Charset charset = Charset.defaultCharset();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private FileChannel channel;
+    private Object fileKey;
+    private long offset;
+    private byte[] partial = new byte[256];
+    private int partialLength;
+    private boolean skipLineFeed;
+
+    /**
+     * Starts following a file.
+     *
+     * @param file The file to follow
+     * @param listener The listener of the appended lines, called on the thread of the follower
+     * @param pollInterval The time between two polls of the file, in milliseconds
+     * @param fromStart true to deliver the lines already in the file, false to only deliver the appended lines
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IllegalArgumentException if the poll interval is not positive or the file is compressed
+     */
+    public FileFollower(File file, LineListener listener, long pollInterval, boolean fromStart) throws DoNotExistsException {
+        if (pollInterval <= 0) throw new IllegalArgumentException();
+        if (file.isFile() && GzipFiles.isGzip(file)) throw new IllegalArgumentException("Compressed files can't be followed: " + file);
+        this.file = file;
+        this.path = file.toPath();
+        this.listener = listener;
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(pollInterval);
+        try {
+            fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (!fromStart) {
+                offset = channel.size();
+                if (offset > 0) {
+                    final ByteBuffer last = ByteBuffer.allocate(1);
+                    channel.read(last, offset - 1);
+                    skipLineFeed = last.get(0) == '\r';
+                }
+            }
+        } catch (IOException e) {
+            close(channel);
+            throw new DoNotExistsException(file);
+        }
+        this.thread = Thread.ofVirtual().name("systemx-follower-" + file.getName()).start(this::run);
+    }
+
+    /**
+     * Stops following the file.
+     *
+     * @throws IOException if the file could not be read while it was followed, or wrapping
+     *                     the exception that stopped the follower, such as one thrown by the listener
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing " + file, e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                poll();
+                LockSupport.parkNanos(this, pollNanos);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Stopped following " + file, e);
+        } finally {
+            close(channel);
+        }
+    }
+
+    /**
+     * Reads what has been appended since the last poll, after following the file again if it has been
+     * truncated or replaced.
+     */
+    private void poll() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (channel != null) {
+            if (attributes == null || !Objects.equals(attributes.fileKey(), fileKey)) {
+                read();
+                if (partialLength > 0) deliver(List.of(line(partial, 0, 0)));
+                reset();
+            } else if (attributes.size() < offset) {
+                reset();
+            }
+        }
+        if (channel == null) {
+            if (attributes == null) return;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+            fileKey = attributes.fileKey();
+            listener.onReset();
+        }
+        read();
+    }
+
+    private void reset() {
+        close(channel);
+        channel = null;
+        offset = 0;
+        partialLength = 0;
+        skipLineFeed = false;
+    }
+
+    /**
+     * Reads the bytes following the offset, delivering the lines of every buffer read.
+     */
+    private void read() throws IOException {
+        while (!closed) {
+            buffer.clear();
+            final int read = channel.read(buffer, offset);
+            if (read <= 0) return;
+            offset += read;
+            deliver(split(buffer.array(), read));
+        }
+    }
+
+    /**
+     * Splits bytes into lines, keeping the bytes following the last line terminator for the next read.
+     */
+    private List<String> split(byte[] bytes, int length) {
+        final List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final byte b = bytes[i];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    start = i + 1;
+                    continue;
+                }
+            }
+            if (b == '\n' || b == '\r') {
+                lines.add(line(bytes, start, i));
+                skipLineFeed = b == '\r';
+                start = i + 1;
+            }
+        }
+        final int rest = length - start;
+        if (partialLength + rest > partial.length) partial = Arrays.copyOf(partial, Math.max(partialLength + rest, partial.length * 2));
+        System.arraycopy(bytes, start, partial, partialLength, rest);
+        partialLength += rest;
+        return lines;
+    }
+
+    /**
+     * Decodes a line made of the kept bytes followed by a range of bytes.
+     */
+    private String line(byte[] bytes, int from, int to) {
+        if (partialLength == 0) return new String(bytes, from, to - from, charset);
+        final byte[] line = Arrays.copyOf(partial, partialLength + to - from);
+        System.arraycopy(bytes, from, line, partialLength, to - from);
+        partialLength = 0;
+        return new String(line, charset);
+    }
+
+    private void deliver(List<String> lines) {
+        if (!lines.isEmpty()) listener.onLines(lines);
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // only read
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package systemx.utils;
+
+import java.io.File;
+
+
+/**
+ * A line of a file matching a search across a directory tree.
+ *
+ * @param file The file holding the line
+ * @param lineNumber The number of the line, starting from 1
+ * @param byteOffset The offset of the first byte of the line in the file
+ * @param line The content of the line, without its line terminator
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileSearch
+ */
+public record FileHit(File file, long lineNumber, long byteOffset, String line) {}
@@ -2,7 +2,20 @@ package systemx.utils;
 
 import java.util.List;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import systemx.exceptions.DoNotExistsException;
 
@@ -11,6 +24,18 @@ import systemx.exceptions.DoNotExistsException;
  * A utility class for file related operations.
  * <p>
  * This class provides methods to work with an individual file.
+ * Files are decoded and encoded with the default charset, unless a {@link Charset} is given.
+ * Overrides and line edits stream the file into a temporary file that then replaces it atomically,
+ * copying the lines that aren't edited byte for byte; a {@link Durability} chooses how far the replaced
+ * file is synced to the storage. Line edits given {@link Durability#IN_PLACE_TAIL} edit the end of a file in
+ * place instead, truncating the file and appending the new lines, which is cheaper but isn't crash safe.
+ * <p>
+ * Files compressed with gzip, detected from their magic bytes or, for new files, from their {@code .gz}
+ * extension, are handled transparently: their lines are read as they are decompressed, and overrides,
+ * edits and appends write compressed content, compressed in parallel blocks of whole lines. Line reads
+ * on files made of such blocks (see {@link GzipBlocks}) only decompress the blocks holding the lines,
+ * and full reads decompress the blocks in parallel. Line edits stream the whole compressed file, and the
+ * {@code Bytes} variants copy the raw compressed bytes.
  *
  * @author Younes Rabeh
  * @version 1.0
@@ -18,6 +43,60 @@ import systemx.exceptions.DoNotExistsException;
 public final class FileManager {
     private FileManager(){}
 
+    /**
+     * The size from which files are read through a {@link MappedLineReader} rather than a reader.
+     */
+    private static final long MAPPED_READ_THRESHOLD = 32L << 20;
+
+    /**
+     * The maximum size of the lines following an edit for the edit to be done in place.
+     */
+    private static final long TAIL_EDIT_LIMIT = 64L << 10;
+
+    /**
+     * The cache of the read lines, null while caching is disabled.
+     */
+    private static volatile LineCache cache;
+
+    /**
+     * Enables caching the lines read by {@link #getFileLines(File)}, {@link #getFileLines(File, Integer, Integer)}
+     * and {@link #getFileLine(File, Integer)}, checking the cached files on every read.
+     *
+     * @param maxBytes The maximum estimated size of the cached lines, in bytes
+     * @throws IllegalArgumentException if the size is not positive
+     * @see #enableCache(long, boolean)
+     */
+    public static void enableCache(long maxBytes) {
+        enableCache(maxBytes, false);
+    }
+
+    /**
+     * Enables caching the lines read by {@link #getFileLines(File)}, {@link #getFileLines(File, Integer, Integer)}
+     * and {@link #getFileLine(File, Integer)}, replacing any previous cache.
+     * <p>
+     * A cached file is read again as soon as its size, last modified time or file key change. When watched,
+     * the directories of the cached files notify their changes and the reads don't check the files anymore,
+     * unless notifications have been lost. The changes made by other processes are then seen once notified,
+     * shortly after they happen, while the changes made through this class are always seen right away.
+     * The least recently read files are evicted once the cached lines exceed the given size, and files larger
+     * than that size are read through their {@link LineIndex} as if the cache were disabled.
+     *
+     * @param maxBytes The maximum estimated size of the cached lines, in bytes
+     * @param watch true to watch the directories of the cached files, false to check the files on every read
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static void enableCache(long maxBytes, boolean watch) {
+        if (maxBytes <= 0) throw new IllegalArgumentException();
+        replaceCache(new LineCache(maxBytes, watch));
+    }
+
+    /**
+     * Disables caching the read lines, dropping the cached lines.
+     */
+    public static void disableCache() {
+        replaceCache(null);
+    }
+
     /**
      * Reads the content of a file and returns it as a list of strings.
      * <p>
@@ -29,15 +108,25 @@ public final class FileManager {
      * @throws DoNotExistsException if the file does not exist
      */
     public static List<String> getFileLines(File file) throws DoNotExistsException {
+        final String[] cached = cachedLines(file);
+        if (cached != null) return new ArrayList<>(Arrays.asList(cached));
         List<String> lines = new ArrayList<>();
+        forEachLine(file, (index, line) -> lines.add(line));
+        return lines;
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))){
-            String line;
-            while ((line = reader.readLine()) != null) lines.add(line);
-        } catch (Exception e){
-            throw new DoNotExistsException(file);
-        }
-
+    /**
+     * Reads the content of a file decoded with a charset and returns it as a list of strings.
+     *
+     * @param file The file to read
+     * @param charset The charset of the file
+     * @return a list of strings representing  content of the file
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static List<String> getFileLines(File file, Charset charset) throws DoNotExistsException {
+        if (charset.equals(Charset.defaultCharset())) return getFileLines(file);
+        List<String> lines = new ArrayList<>();
+        forEachLine(file, charset, (index, line) -> lines.add(line));
         return lines;
     }
 
@@ -46,6 +135,7 @@ public final class FileManager {
      * <p>
      * This method reads the content of a file and returns it as a list of strings.
      * Each string in the list represents a line in the file.
+     * The first line is located through the {@link LineIndex} of the file, so only the requested lines are read.
      *
      * @param file The file to read
      * @param start The line number to start reading from
@@ -54,17 +144,25 @@ public final class FileManager {
      * @throws DoNotExistsException if the file does not exist
      */
     public static List<String> getFileLines(File file, Integer start, Integer end) throws DoNotExistsException {
+        final String[] cached = cachedLines(file);
+        if (cached != null) {
+            if (start < 0 || start > cached.length) throw new IndexOutOfBoundsException();
+            if (end < 0 || end > cached.length) throw new IndexOutOfBoundsException();
+            final int first = Math.max(start, 1);
+            return first <= end ? new ArrayList<>(Arrays.asList(cached).subList(first - 1, end)) : new ArrayList<>();
+        }
+        if (GzipFiles.isGzip(file)) return compressedLines(file, start, end);
         List<String> lines = new ArrayList<>();
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))){
-            int fileLines = countLines(file);
-            String line;
+        try (LineIndex index = LineIndex.open(file)){
+            long fileLines = index.lineCount();
             if (start < 0 || start > fileLines) throw new IndexOutOfBoundsException();
             if (end < 0 || end > fileLines) throw new IndexOutOfBoundsException();
-            int lineNumber = 0;
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                if (lineNumber >= start && lineNumber <= end) lines.add(line);
+            int first = Math.max(start, 1);
+            if (first <= end) {
+                try (BufferedReader reader = openReader(file, index.startOf(first - 1))) {
+                    for (int lineNumber = first; lineNumber <= end; lineNumber++) lines.add(reader.readLine());
+                }
             }
         } catch (IndexOutOfBoundsException e){
             throw e;
@@ -77,6 +175,9 @@ public final class FileManager {
 
     /**
      * Reads the content of a file and returns it as a list of strings.
+     * <p>
+     * The line is located through the {@link LineIndex} of the file, so only the line itself is read.
+     *
      * @param file The file to read
      * @param lineNumber The line number to get
      * @return The line fetched from the file
@@ -84,53 +185,313 @@ public final class FileManager {
      * @throws IndexOutOfBoundsException if the line number is out of bounds
      */
     public static String getFileLine(File file, Integer lineNumber) throws DoNotExistsException {
-        List<String> lines = getFileLines(file);
-        if (lineNumber < 0 || lineNumber > lines.size()) throw new IndexOutOfBoundsException();
-        return lines.get(lineNumber);
+        final String[] cached = cachedLines(file);
+        if (cached != null) {
+            if (lineNumber < 0 || lineNumber >= cached.length) throw new IndexOutOfBoundsException();
+            return cached[lineNumber];
+        }
+        if (GzipFiles.isGzip(file)) {
+            if (lineNumber < 0) throw new IndexOutOfBoundsException();
+            return compressedLines(file, lineNumber + 1, lineNumber + 1).get(0);
+        }
+        try (LineIndex index = LineIndex.open(file)){
+            if (lineNumber < 0 || lineNumber >= index.lineCount()) throw new IndexOutOfBoundsException();
+            try (BufferedReader reader = openReader(file, index.startOf(lineNumber))) {
+                return reader.readLine();
+            }
+        } catch (IndexOutOfBoundsException e){
+            throw e;
+        } catch (Exception e){
+            throw new DoNotExistsException(file);
+        }
     }
 
     /**
      * Reads the content of a file and returns it as a list of strings.
+     * <p>
+     * Large files are mapped in memory, and the lines above the index are skipped without being decoded.
+     * Compressed files made of blocks only have the blocks holding the lines below the index decompressed.
+     *
      * @param file The file to read
      * @param index The index of the row to get below
      * @return The lines below the index fetched from the file
      */
     public static List<String> getLinesBelow(File file, Integer index) throws DoNotExistsException{
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            int currentIndex = 0;
-            boolean found = false;
-            while ((line = reader.readLine()) != null) {
-                if (currentIndex == index) found = true;
-                if (found) lines.add(line);
-                currentIndex++;
+        if (GzipFiles.isGzip(file)) {
+            try (GzipBlocks blocks = openBlocks(file)) {
+                if (blocks != null) {
+                    final long lineCount = blocks.lineCount();
+                    if (index < 0) return new ArrayList<>();
+                    return blocks.lines(Math.min(index, lineCount), lineCount, Charset.defaultCharset());
+                }
+            } catch (IOException e) {
+                throw new DoNotExistsException(file);
+            }
+        } else if (file.length() >= MAPPED_READ_THRESHOLD) {
+            if (index < 0) return new ArrayList<>();
+            try (MappedLineReader reader = MappedLineReader.open(file)) {
+                return reader.getLinesFrom(index);
+            } catch (IOException e) {
+                throw new DoNotExistsException(file);
             }
-        } catch (Exception e) {
-            throw new DoNotExistsException(file);
         }
+        List<String> lines = new ArrayList<>();
+        forEachLine(file, (currentIndex, line) -> {
+            if (index >= 0 && currentIndex >= index) lines.add(line);
+            return true;
+        });
         return lines;
     }
 
     /**
      * Reads the content of a file and returns it as a list of strings.
+     * <p>
+     * The file is only read up to the index.
+     *
      * @param file The file to read
      * @param index The index of the row to get above
      * @return The lines above the index fetched from the file
      */
     public static List<String> getLinesAbove(File file, Integer index) throws DoNotExistsException{
         List<String> lines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            int currentIndex = 0;
-            while ((line = reader.readLine()) != null) {
-                if (currentIndex < index) lines.add(line);
-                else break;
-                currentIndex++;
+        forEachLine(file, (currentIndex, line) -> currentIndex < index && lines.add(line));
+        return lines;
+    }
+
+    /**
+     * Reads a file line by line, passing each line to a visitor.
+     * <p>
+     * Only one line at a time is held in memory, and the file is not read any further
+     * once the visitor returns false.
+     *
+     * @param file The file to read
+     * @param visitor The visitor receiving the lines
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void forEachLine(File file, LineVisitor visitor) throws DoNotExistsException {
+        forEachLine(file, Charset.defaultCharset(), visitor);
+    }
+
+    /**
+     * Reads a file decoded with a charset line by line, passing each line to a visitor.
+     * <p>
+     * Only one line at a time is held in memory, and the file is not read any further
+     * once the visitor returns false.
+     *
+     * @param file The file to read
+     * @param charset The charset of the file
+     * @param visitor The visitor receiving the lines
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void forEachLine(File file, Charset charset, LineVisitor visitor) throws DoNotExistsException {
+        try {
+            new LineScanner(charset).scan(file, (index, line) -> visitor.visit((int) index, (String) line), true);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Reads a file line by line without creating a string per line, passing each line to a visitor.
+     *
+     * @param file The file to read
+     * @param visitor The visitor receiving the lines
+     * @throws DoNotExistsException if the file does not exist
+     * @see #scanLines(File, Charset, LineSequenceVisitor)
+     */
+    public static void scanLines(File file, LineSequenceVisitor visitor) throws DoNotExistsException {
+        scanLines(file, Charset.defaultCharset(), visitor);
+    }
+
+    /**
+     * Reads a file decoded with a charset line by line without creating a string per line,
+     * passing each line to a visitor.
+     * <p>
+     * The lines are views over a buffer reused for every line, only valid during the call to the visitor.
+     * With UTF-8, US-ASCII and ISO-8859-1, lines made of ASCII characters aren't even decoded, so counting,
+     * comparing or forwarding lines barely allocates anything.
+     *
+     * @param file The file to read
+     * @param charset The charset of the file
+     * @param visitor The visitor receiving the lines
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void scanLines(File file, Charset charset, LineSequenceVisitor visitor) throws DoNotExistsException {
+        try {
+            new LineScanner(charset).scan(file, visitor, false);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Opens a cursor over the lines of a file.
+     * <p>
+     * The cursor reads the file lazily and must be closed once it is not needed anymore.
+     *
+     * @param file The file to read
+     * @return A cursor over the lines of the file
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static LineCursor cursor(File file) throws DoNotExistsException {
+        return cursor(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Opens a cursor over the lines of a file decoded with a charset.
+     *
+     * @param file The file to read
+     * @param charset The charset of the file
+     * @return A cursor over the lines of the file
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static LineCursor cursor(File file, Charset charset) throws DoNotExistsException {
+        try {
+            return new LineCursor(openReader(file, 0, charset));
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Gets the lines of a file as a lazily populated stream.
+     * <p>
+     * The stream must be closed to release the file, e.g. with a try-with-resources statement.
+     *
+     * @param file The file to read
+     * @return A stream of the lines of the file
+     * @throws DoNotExistsException if the file does not exist
+     * @throws java.io.UncheckedIOException if the file can't be read while the stream is consumed
+     */
+    public static Stream<String> lines(File file) throws DoNotExistsException {
+        return lines(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Gets the lines of a file decoded with a charset as a lazily populated stream.
+     *
+     * @param file The file to read
+     * @param charset The charset of the file
+     * @return A stream of the lines of the file
+     * @throws DoNotExistsException if the file does not exist
+     * @throws java.io.UncheckedIOException if the file can't be read while the stream is consumed
+     */
+    public static Stream<String> lines(File file, Charset charset) throws DoNotExistsException {
+        try {
+            BufferedReader reader = openReader(file, 0, charset);
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Searches the lines of a file containing a literal.
+     *
+     * @param file The file to search
+     * @param literal The literal to search
+     * @return The matching lines, in the order of the file, to be closed once read
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IllegalArgumentException if the literal contains a line terminator
+     * @see #search(File, String, int)
+     */
+    public static Stream<SearchHit> search(File file, String literal) throws DoNotExistsException {
+        return search(file, literal, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the lines of a file containing a literal, up to a number of hits.
+     * <p>
+     * The file is scanned in parallel chunks, the literal being searched in the raw bytes of the file
+     * so only the matching lines are decoded.
+     *
+     * @param file The file to search
+     * @param literal The literal to search
+     * @param maxHits The maximum number of lines to return
+     * @return The matching lines, in the order of the file, to be closed once read
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IllegalArgumentException if the literal contains a line terminator or the maximum is negative
+     */
+    public static Stream<SearchHit> search(File file, String literal, int maxHits) throws DoNotExistsException {
+        return search(file, LineSearch.literal(literal), maxHits);
+    }
+
+    /**
+     * Searches the lines of a file in which a regular expression is found.
+     *
+     * @param file The file to search
+     * @param pattern The regular expression to find
+     * @return The matching lines, in the order of the file, to be closed once read
+     * @throws DoNotExistsException if the file does not exist
+     * @see #search(File, Pattern, int)
+     */
+    public static Stream<SearchHit> search(File file, Pattern pattern) throws DoNotExistsException {
+        return search(file, pattern, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the lines of a file in which a regular expression is found, up to a number of hits.
+     * <p>
+     * The file is scanned in parallel chunks.
+     *
+     * @param file The file to search
+     * @param pattern The regular expression to find
+     * @param maxHits The maximum number of lines to return
+     * @return The matching lines, in the order of the file, to be closed once read
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IllegalArgumentException if the maximum is negative
+     */
+    public static Stream<SearchHit> search(File file, Pattern pattern, int maxHits) throws DoNotExistsException {
+        return search(file, LineSearch.regex(pattern), maxHits);
+    }
+
+    /**
+     * Reads the last lines of a file.
+     * <p>
+     * The file is read backwards from its end, so only the returned lines are read, whatever the size of the file.
+     * A compressed file made of blocks only has its last blocks decompressed, other compressed files are
+     * read from their start, keeping only the last lines.
+     *
+     * @param file The file to read
+     * @param count The number of lines to read
+     * @return The last lines of the file in their order, fewer if the file has fewer lines
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IllegalArgumentException if the count is negative
+     */
+    public static List<String> tail(File file, int count) throws DoNotExistsException {
+        if (count < 0) throw new IllegalArgumentException();
+        List<String> lines = new ArrayList<>();
+        if (count > 0 && GzipFiles.isGzip(file)) {
+            try (GzipBlocks blocks = openBlocks(file)) {
+                if (blocks != null) {
+                    final long lineCount = blocks.lineCount();
+                    return blocks.lines(Math.max(0, lineCount - count), lineCount, Charset.defaultCharset());
+                }
+            } catch (IOException e) {
+                throw new DoNotExistsException(file);
             }
-        } catch (Exception e) {
+            // can't be read backwards, only the last lines are kept
+            final ArrayDeque<String> last = new ArrayDeque<>(Math.min(count, 1024));
+            forEachLine(file, (index, line) -> {
+                if (last.size() == count) last.removeFirst();
+                return last.add(line);
+            });
+            lines.addAll(last);
+            return lines;
+        }
+        try (ReverseLineReader reader = ReverseLineReader.open(file)) {
+            String line;
+            while (lines.size() < count && (line = reader.readLine()) != null) lines.add(line);
+        } catch (IOException e) {
             throw new DoNotExistsException(file);
         }
+        Collections.reverse(lines);
         return lines;
     }
 
@@ -138,34 +499,47 @@ public final class FileManager {
      * Counts the number of lines in a file.
      * <p>
      * This method counts the number of lines in a file and returns the count.
+     * The lines are counted on the raw bytes of the file, in parallel for large files.
      *
      * @param file The file to count the lines of
      * @return The number of lines in the file
      * @throws DoNotExistsException if the file does not exist
      */
     public static int countLines(File file) throws DoNotExistsException {
-        int count = 0;
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))){
-            while (reader.readLine() != null) count++;
-        } catch (Exception e){
+        if (GzipFiles.isGzip(file)) {
+            try (GzipBlocks blocks = openBlocks(file)) {
+                if (blocks != null) return Math.toIntExact(blocks.lineCount());
+            } catch (IOException e) {
+                throw new DoNotExistsException(file);
+            }
+            final long[] count = new long[1];
+            scanLines(file, (index, line) -> {
+                count[0] = index + 1;
+                return true;
+            });
+            return Math.toIntExact(count[0]);
+        }
+        try {
+            return Math.toIntExact(LineCounter.count(file));
+        } catch (IOException e){
             throw new DoNotExistsException(file);
         }
-
-        return count;
     }
 
     /**
      * Appends the content of a file to another file.
      * <p>
      * This method appends the content of a file to another file.
+     * Either file may be compressed, the appended content being decompressed, then compressed again as a new
+     * gzip member of the file if it is compressed.
      *
      * @param file The file to append to
      * @param fileToAppend The file to append
      * @throws DoNotExistsException if the file to append does not exist
      */
     public static void appendToFile(File file, File fileToAppend) throws DoNotExistsException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
-             BufferedReader reader = new BufferedReader(new FileReader(fileToAppend))) {
+        try (BufferedWriter writer = appendWriter(file, Charset.defaultCharset(), GzipFiles.isGzip(file));
+             BufferedReader reader = openReader(fileToAppend, 0)) {
             String line;
             while ((line = reader.readLine()) != null) {
                 writer.write(line);
@@ -173,6 +547,8 @@ public final class FileManager {
             }
         } catch (Exception e) {
             throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
         }
     }
 
@@ -180,20 +556,49 @@ public final class FileManager {
      * Appends an array of strings to a file.
      * <p>
      * This method appends an array of strings to a file.
+     * A compressed file is appended a new gzip member, its content being expected to end with a line terminator.
      *
      * @param file The file to append to
      * @param lines The array of strings to append
      * @throws DoNotExistsException if the file does not exist
      */
     public static void appendToFile(File file, String[] lines) throws DoNotExistsException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
-            if (lineCheck(file)) writer.newLine();
+        final boolean compressed = GzipFiles.isGzip(file);
+        try (BufferedWriter writer = appendWriter(file, Charset.defaultCharset(), compressed)) {
+            if (!compressed && lineCheck(file)) writer.newLine();
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (Exception e) {
+            throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
+        }
+    }
+
+    /**
+     * Appends an array of strings to a file, encoded with a charset.
+     * A charset writing a byte order mark, like UTF-16, only writes it at the start of an empty file.
+     *
+     * @param file The file to append to
+     * @param lines The array of strings to append
+     * @param charset The charset of the file
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void appendToFile(File file, String[] lines, Charset charset) throws DoNotExistsException {
+        final boolean compressed = GzipFiles.isGzip(file);
+        final Charset encoding = file.length() > 0 ? withoutByteOrderMark(charset) : charset;
+        try (BufferedWriter writer = appendWriter(file, encoding, compressed)) {
+            if (!compressed && lacksTerminator(file, charset)) writer.newLine();
             for (String line : lines) {
                 writer.write(line);
                 writer.newLine();
             }
         } catch (Exception e) {
             throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
         }
     }
 
@@ -201,107 +606,294 @@ public final class FileManager {
      * Appends a string to a file.
      * <p>
      * This method appends a string to a file.
+     * A compressed file is appended a new gzip member, its content being expected to end with a line terminator.
      *
      * @param file The file to append to
      * @param line The string to append
      * @throws DoNotExistsException if the file does not exist
      */
     public static void appendToFile(File file, String line) throws DoNotExistsException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, true))) {
-            if (lineCheck(file)) writer.newLine();
+        final boolean compressed = GzipFiles.isGzip(file);
+        try (BufferedWriter writer = appendWriter(file, Charset.defaultCharset(), compressed)) {
+            if (!compressed && lineCheck(file)) writer.newLine();
             writer.write(line);
             writer.newLine();
         } catch (Exception e) {
             throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
         }
     }
 
     /**
      * Overrides The content of a file with the content of another file.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
      * @param file The file to override
      * @param newFile The file to override with
      * @throws DoNotExistsException if the file does not exist
      */
     public static void overrideFile(File file, File newFile) throws DoNotExistsException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-             BufferedReader reader = new BufferedReader(new FileReader(newFile))) {
-            String line;
-            if (lineCheck(file)) writer.newLine();
-            while ((line = reader.readLine()) != null) {
-                writer.write(line);
-                writer.newLine();
-            }
-        } catch (Exception e) {
-            throw new DoNotExistsException(file);
-        }
+        overrideFile(file, newFile, Durability.NONE);
     }
 
     /**
-     * Overrides the content of a file with an array of strings.
+     * Overrides The content of a file with the content of another file, replacing it atomically.
      * @param file The file to override
-     * @param lines The array of strings to override with
+     * @param newFile The file to override with
+     * @param durability What to sync before returning
      * @throws DoNotExistsException if the file does not exist
      */
-    public static void overrideFile(File file, String[] lines) throws DoNotExistsException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            for (String line : lines) {
-                writer.write(line);
-                writer.newLine();
-            }
+    public static void overrideFile(File file, File newFile, Durability durability) throws DoNotExistsException {
+        try (BufferedReader reader = openReader(newFile, 0)) {
+            AtomicFiles.write(file, durability, writer -> {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            });
         } catch (Exception e) {
             throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
         }
     }
 
-    public static void overrideFile(File file, List<String[]> lines) throws DoNotExistsException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            for (String[] line : lines) {
-                for (String s : line) {
-                    writer.write(s);
-                }
-                writer.newLine();
-            }
-        } catch (Exception e) {
+    /**
+     * Appends the bytes of a file to another file, as they are.
+     * <p>
+     * Unlike {@link #appendToFile(File, File)}, the content is neither decoded nor are its line terminators
+     * normalized: the bytes are copied by the kernel with {@link FileChannel#transferTo}.
+     * A line terminator is first added to the file if it doesn't end with one, unless it is compressed:
+     * appending a compressed file to a compressed file this way concatenates their gzip members.
+     *
+     * @param file The file to append to
+     * @param fileToAppend The file to append
+     * @throws DoNotExistsException if the file to append does not exist
+     */
+    public static void appendFileBytes(File file, File fileToAppend) throws DoNotExistsException {
+        if (!fileToAppend.isFile()) throw new DoNotExistsException(fileToAppend);
+        if (!GzipFiles.isGzip(file)) lineCheck(file);
+        try (FileChannel source = FileChannel.open(fileToAppend.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            transfer(source, target);
+        } catch (IOException e) {
             throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
         }
     }
 
     /**
-     * Overrides the content of a file with a string.
+     * Overrides the content of a file with the bytes of another file, as they are.
+     * <p>
+     * Unlike {@link #overrideFile(File, File)}, the content is neither decoded nor are its line terminators
+     * normalized: the bytes are copied by the kernel with {@link FileChannel#transferTo}.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
+     *
      * @param file The file to override
-     * @param lineNumber The line number to override
-     * @param newLine The string to override with
-     * @throws DoNotExistsException if the file does not exist
-     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     * @param newFile The file to override with
+     * @throws DoNotExistsException if the file to override with does not exist
      */
-    public static void overrideLine(File file, Integer lineNumber, String newLine) throws DoNotExistsException {
-        List<String> lines = getFileLines(file);
-        if (lineNumber < 1 || lineNumber > lines.size()) throw new IndexOutOfBoundsException();
-        lines.set(lineNumber - 1, newLine);
-        overrideFile(file, lines.toArray(new String[0]));
+    public static void overrideFileBytes(File file, File newFile) throws DoNotExistsException {
+        overrideFileBytes(file, newFile, Durability.NONE);
     }
 
     /**
-     * Overrides a section of a file with an array of strings.
+     * Overrides the content of a file with the bytes of another file, as they are, replacing it atomically.
+     *
      * @param file The file to override
-     * @param start The line number to start overriding from
-     * @param end The line number to stop overriding at
-     * @param newLines The array of strings to override with
-     * @throws DoNotExistsException if the file does not exist
-     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     * @param newFile The file to override with
+     * @param durability What to sync before returning
+     * @throws DoNotExistsException if the file to override with does not exist
      */
-    public static void overrideSection(File file,
-                                       Integer start,
-                                       Integer end,
+    public static void overrideFileBytes(File file, File newFile, Durability durability) throws DoNotExistsException {
+        if (!newFile.isFile()) throw new DoNotExistsException(newFile);
+        try (FileChannel source = FileChannel.open(newFile.toPath(), StandardOpenOption.READ)) {
+            final Path temp = AtomicFiles.createSibling(file);
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                transfer(source, target);
+            } catch (IOException e) {
+                AtomicFiles.discard(temp);
+                throw e;
+            }
+            AtomicFiles.commit(temp, file, durability);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
+        }
+    }
+
+    /**
+     * Overrides the content of a file with an array of strings.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
+     * @param file The file to override
+     * @param lines The array of strings to override with
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void overrideFile(File file, String[] lines) throws DoNotExistsException {
+        overrideFile(file, lines, Durability.NONE);
+    }
+
+    /**
+     * Overrides the content of a file with an array of strings, replacing it atomically.
+     * @param file The file to override
+     * @param lines The array of strings to override with
+     * @param durability What to sync before returning
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void overrideFile(File file, String[] lines, Durability durability) throws DoNotExistsException {
+        overrideFile(file, lines, Charset.defaultCharset(), durability);
+    }
+
+    /**
+     * Overrides the content of a file with an array of strings encoded with a charset.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
+     * @param file The file to override
+     * @param lines The array of strings to override with
+     * @param charset The charset of the file
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void overrideFile(File file, String[] lines, Charset charset) throws DoNotExistsException {
+        overrideFile(file, lines, charset, Durability.NONE);
+    }
+
+    /**
+     * Overrides the content of a file with an array of strings encoded with a charset, replacing it atomically.
+     * @param file The file to override
+     * @param lines The array of strings to override with
+     * @param charset The charset of the file
+     * @param durability What to sync before returning
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void overrideFile(File file, String[] lines, Charset charset,
+                                    Durability durability) throws DoNotExistsException {
+        try {
+            AtomicFiles.write(file, charset, durability, writer -> {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            });
+        } catch (Exception e) {
+            throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
+        }
+    }
+
+    public static void overrideFile(File file, List<String[]> lines) throws DoNotExistsException {
+        try {
+            AtomicFiles.write(file, Durability.NONE, writer -> {
+                for (String[] line : lines) {
+                    for (String s : line) {
+                        writer.write(s);
+                    }
+                    writer.newLine();
+                }
+            });
+        } catch (Exception e) {
+            throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
+        }
+    }
+
+    /**
+     * Overrides the content of a file with a string.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
+     * @param file The file to override
+     * @param lineNumber The line number to override
+     * @param newLine The string to override with
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public static void overrideLine(File file, Integer lineNumber, String newLine) throws DoNotExistsException {
+        overrideLine(file, lineNumber, newLine, Durability.NONE);
+    }
+
+    /**
+     * Overrides the content of a file with a string.
+     * @param file The file to override
+     * @param lineNumber The line number to override
+     * @param newLine The string to override with
+     * @param durability What to sync before returning, the file being replaced atomically, or
+     *                   {@link Durability#IN_PLACE_TAIL} to edit the end of the file in place, which isn't crash safe
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public static void overrideLine(File file, Integer lineNumber, String newLine,
+                                    Durability durability) throws DoNotExistsException {
+        Objects.requireNonNull(durability);
+        if (GzipFiles.isGzip(file)) {
+            if (lineNumber < 1) throw new IndexOutOfBoundsException();
+            rewriteCompressed(file, lineNumber, lineNumber, linesOf(new String[]{newLine}), durability);
+            return;
+        }
+        try (LineIndex index = LineIndex.open(file)) {
+            if (lineNumber < 1 || lineNumber > index.lineCount()) throw new IndexOutOfBoundsException();
+            rewrite(file, index, lineNumber, lineNumber, new String[]{newLine}, durability);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Overrides a section of a file with an array of strings.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
+     * @param file The file to override
+     * @param start The line number to start overriding from
+     * @param end The line number to stop overriding at
+     * @param newLines The array of strings to override with
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     */
+    public static void overrideSection(File file,
+                                       Integer start,
+                                       Integer end,
                                        String[] newLines
     ) throws DoNotExistsException {
-        List<String> lines = getFileLines(file);
-        if (start < 1 || start > lines.size()) throw new IndexOutOfBoundsException();
-        if (end < 1 || end > lines.size()) throw new IndexOutOfBoundsException();
-        for (int i = start - 1; i < end; i++) {
-            lines.set(i, newLines[i - start + 1]);
+        overrideSection(file, start, end, newLines, Durability.NONE);
+    }
+
+    /**
+     * Overrides a section of a file with an array of strings.
+     * @param file The file to override
+     * @param start The line number to start overriding from
+     * @param end The line number to stop overriding at
+     * @param newLines The array of strings to override with
+     * @param durability What to sync before returning, the file being replaced atomically, or
+     *                   {@link Durability#IN_PLACE_TAIL} to edit the end of the file in place, which isn't crash safe
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     */
+    public static void overrideSection(File file,
+                                       Integer start,
+                                       Integer end,
+                                       String[] newLines,
+                                       Durability durability
+    ) throws DoNotExistsException {
+        Objects.requireNonNull(durability);
+        if (GzipFiles.isGzip(file)) {
+            if (start < 1 || end < 1) throw new IndexOutOfBoundsException();
+            if (start > end) {
+                if (start > countLines(file)) throw new IndexOutOfBoundsException();
+                return;
+            }
+            if (newLines.length < end - start + 1) throw new ArrayIndexOutOfBoundsException();
+            rewriteCompressed(file, start, end, linesOf(Arrays.copyOf(newLines, end - start + 1)), durability);
+            return;
+        }
+        try (LineIndex index = LineIndex.open(file)) {
+            if (start < 1 || start > index.lineCount()) throw new IndexOutOfBoundsException();
+            if (end < 1 || end > index.lineCount()) throw new IndexOutOfBoundsException();
+            if (start > end) return;
+            if (newLines.length < end - start + 1) throw new ArrayIndexOutOfBoundsException();
+            rewrite(file, index, start, end, Arrays.copyOf(newLines, end - start + 1), durability);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
         }
-        overrideFile(file, lines.toArray(new String[0]));
     }
 
     /**
@@ -312,15 +904,50 @@ public final class FileManager {
      * @throws DoNotExistsException if the file does not exist
      */
     public static void insertFile(File file, File fileToInsert, Integer lineNumber) throws DoNotExistsException {
-        List<String> lines = getFileLines(file);
-        List<String> linesToInsert = getFileLines(fileToInsert);
-        if (lineNumber < 1 || lineNumber > lines.size()) throw new IndexOutOfBoundsException();
-        lines.addAll(lineNumber - 1, linesToInsert);
-        overrideFile(file, lines.toArray(new String[0]));
+        insertFile(file, fileToInsert, lineNumber, Durability.NONE);
+    }
+
+    /**
+     * Overrides a section of a file with a file, replacing the file atomically.
+     * @param file The file to override
+     * @param fileToInsert The file to override with
+     * @param lineNumber The line number to override
+     * @param durability What to sync before returning
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static void insertFile(File file, File fileToInsert, Integer lineNumber,
+                                  Durability durability) throws DoNotExistsException {
+        if (!fileToInsert.isFile()) throw new DoNotExistsException(fileToInsert);
+        if (GzipFiles.isGzip(file)) {
+            if (lineNumber < 1) throw new IndexOutOfBoundsException();
+            rewriteCompressed(file, lineNumber, lineNumber - 1, writer -> {
+                try (BufferedReader reader = openReader(fileToInsert, 0)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                }
+            }, durability);
+            return;
+        }
+        try (LineIndex index = LineIndex.open(file)) {
+            if (lineNumber < 1 || lineNumber > index.lineCount()) throw new IndexOutOfBoundsException();
+            try (FileRewriter rewriter = FileRewriter.open(file, durability)) {
+                long offset = index.startOf(lineNumber - 1);
+                rewriter.copy(0, offset);
+                rewriter.copy(fileToInsert);
+                rewriter.copy(offset, index.length());
+                rewriter.commit();
+            }
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
     }
 
     /**
      * Inserts a string to a file.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
      * @param file The file to insert
      * @param lines The array of strings to insert
      * @param lineNumber The line number to insert at
@@ -328,16 +955,38 @@ public final class FileManager {
      * @throws IndexOutOfBoundsException if the line number is out of bounds
      */
     public static void insertLines(File file, String[] lines, Integer lineNumber) throws DoNotExistsException {
-        List<String> fileLines = getFileLines(file);
-        if (lineNumber < 1 || lineNumber > fileLines.size()) throw new IndexOutOfBoundsException();
-        for (int i = 0; i < lines.length; i++) {
-            fileLines.add(lineNumber - 1 + i, lines[i]);
+        insertLines(file, lines, lineNumber, Durability.NONE);
+    }
+
+    /**
+     * Inserts a string to a file.
+     * @param file The file to insert
+     * @param lines The array of strings to insert
+     * @param lineNumber The line number to insert at
+     * @param durability What to sync before returning, the file being replaced atomically, or
+     *                   {@link Durability#IN_PLACE_TAIL} to edit the end of the file in place, which isn't crash safe
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public static void insertLines(File file, String[] lines, Integer lineNumber,
+                                   Durability durability) throws DoNotExistsException {
+        Objects.requireNonNull(durability);
+        if (GzipFiles.isGzip(file)) {
+            if (lineNumber < 1) throw new IndexOutOfBoundsException();
+            rewriteCompressed(file, lineNumber, lineNumber - 1, linesOf(lines), durability);
+            return;
+        }
+        try (LineIndex index = LineIndex.open(file)) {
+            if (lineNumber < 1 || lineNumber > index.lineCount()) throw new IndexOutOfBoundsException();
+            rewrite(file, index, lineNumber, lineNumber - 1, lines, durability);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
         }
-        overrideFile(file, fileLines.toArray(new String[0]));
     }
 
     /**
      * Inserts a string to a file.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
      * @param file The file to insert
      * @param line The string to insert
      * @param lineNumber The line number to insert at
@@ -345,14 +994,27 @@ public final class FileManager {
      * @throws IndexOutOfBoundsException if the line number is out of bounds
      */
     public static void insertLine(File file, String line, Integer lineNumber) throws DoNotExistsException {
-        List<String> fileLines = getFileLines(file);
-        if (lineNumber < 1 || lineNumber > fileLines.size()) throw new IndexOutOfBoundsException();
-        fileLines.add(lineNumber - 1, line);
-        overrideFile(file, fileLines.toArray(new String[0]));
+        insertLines(file, new String[]{line}, lineNumber);
+    }
+
+    /**
+     * Inserts a string to a file.
+     * @param file The file to insert
+     * @param line The string to insert
+     * @param lineNumber The line number to insert at
+     * @param durability What to sync before returning, the file being replaced atomically, or
+     *                   {@link Durability#IN_PLACE_TAIL} to edit the end of the file in place, which isn't crash safe
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public static void insertLine(File file, String line, Integer lineNumber,
+                                  Durability durability) throws DoNotExistsException {
+        insertLines(file, new String[]{line}, lineNumber, durability);
     }
 
     /**
      * Deletes a line from a file.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
      * @param file The file to delete from
      * @param start The line number to start deleting from
      * @param end The line number to stop deleting at
@@ -360,28 +1022,430 @@ public final class FileManager {
      * @throws IndexOutOfBoundsException if the line number is out of bounds
      */
     public static void deleteSection(File file, Integer start, Integer end) throws DoNotExistsException {
-        List<String> lines = getFileLines(file);
-        if (start < 1 || start > lines.size()) throw new IndexOutOfBoundsException();
-        if (end < 1 || end > lines.size()) throw new IndexOutOfBoundsException();
-        lines.subList(start - 1, end).clear();
-        overrideFile(file, lines.toArray(new String[0]));
+        deleteSection(file, start, end, Durability.NONE);
     }
 
     /**
      * Deletes a line from a file.
      * @param file The file to delete from
+     * @param start The line number to start deleting from
+     * @param end The line number to stop deleting at
+     * @param durability What to sync before returning, the file being replaced atomically, or
+     *                   {@link Durability#IN_PLACE_TAIL} to edit the end of the file in place, which isn't crash safe
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public static void deleteSection(File file, Integer start, Integer end,
+                                     Durability durability) throws DoNotExistsException {
+        Objects.requireNonNull(durability);
+        if (GzipFiles.isGzip(file)) {
+            if (start < 1 || end < 1) throw new IndexOutOfBoundsException();
+            if (start - 1 > end) {
+                if (start > countLines(file)) throw new IndexOutOfBoundsException();
+                throw new IllegalArgumentException();
+            }
+            rewriteCompressed(file, start, end, linesOf(new String[0]), durability);
+            return;
+        }
+        try (LineIndex index = LineIndex.open(file)) {
+            if (start < 1 || start > index.lineCount()) throw new IndexOutOfBoundsException();
+            if (end < 1 || end > index.lineCount()) throw new IndexOutOfBoundsException();
+            if (start - 1 > end) throw new IllegalArgumentException();
+            rewrite(file, index, start, end, new String[0], durability);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Deletes a line from a file.
+     * The file is replaced atomically, without syncing it (see {@link Durability#NONE}).
+     * @param file The file to delete from
      * @param lineNumber The line number to delete
      * @throws DoNotExistsException if the file does not exist
      * @throws IndexOutOfBoundsException if the line number is out of bounds
      */
     public static void deleteLine(File file, Integer lineNumber) throws DoNotExistsException {
-        List<String> lines = getFileLines(file);
-        if (lineNumber < 1 || lineNumber > lines.size()) throw new IndexOutOfBoundsException();
-        lines.remove(lineNumber - 1);
-        overrideFile(file, lines.toArray(new String[0]));
+        deleteSection(file, lineNumber, lineNumber);
+    }
+
+    /**
+     * Deletes a line from a file.
+     * @param file The file to delete from
+     * @param lineNumber The line number to delete
+     * @param durability What to sync before returning, the file being replaced atomically, or
+     *                   {@link Durability#IN_PLACE_TAIL} to edit the end of the file in place, which isn't crash safe
+     * @throws DoNotExistsException if the file does not exist
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public static void deleteLine(File file, Integer lineNumber, Durability durability) throws DoNotExistsException {
+        deleteSection(file, lineNumber, lineNumber, durability);
+    }
+
+    /**
+     * Starts a batch of line edits on a file.
+     * <p>
+     * The edits queued in the batch are all applied in a single pass over the file,
+     * instead of one full rewrite per edit.
+     *
+     * @param file The file to edit
+     * @return An empty batch of edits
+     */
+    public static EditBatch edit(File file) {
+        return new EditBatch(file);
+    }
+
+    /**
+     * Opens a file for editing in memory.
+     * <p>
+     * Line edits on the returned file only update a piece table, and are written
+     * to the file in one sequential pass when it is flushed.
+     *
+     * @param file The file to edit
+     * @return The editable file, to be closed once the editing is done
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static EditableFile openEditable(File file) throws DoNotExistsException {
+        try {
+            return EditableFile.open(file);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Opens a file for editing through a write-ahead journal.
+     * <p>
+     * Line edits on the returned file are durable once they return, but are only written
+     * to the file itself in batches, at checkpoints. Edits left by a crash are replayed.
+     *
+     * @param file The file to edit
+     * @return The journaled file, to be closed once the editing is done
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static JournaledFile openJournaled(File file) throws DoNotExistsException {
+        try {
+            return JournaledFile.open(file);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Opens a long-lived appender on a file.
+     * <p>
+     * The appender keeps the file open and writes the appended lines in groups,
+     * which is much cheaper than calling {@link #appendToFile(File, String)} for every line.
+     *
+     * @param file The file to append to, created if it does not exist
+     * @return The appender, to be closed once the appending is done
+     * @throws DoNotExistsException if the file can't be opened
+     */
+    public static FileAppender openAppender(File file) throws DoNotExistsException {
+        return new FileAppender(file);
+    }
+
+    /**
+     * Opens an appender shared by many threads, which enqueue their lines for a single writer thread.
+     *
+     * @param file The file to append to, created if it does not exist
+     * @param capacity The number of lines the queue can hold
+     * @return The appender, to be closed once the appending is done
+     * @throws DoNotExistsException if the file can't be opened
+     */
+    public static QueuedAppender openQueuedAppender(File file, int capacity) throws DoNotExistsException {
+        return new QueuedAppender(file, capacity);
+    }
+
+    /**
+     * Follows a growing file, delivering the lines appended to it from now on.
+     * <p>
+     * Only the appended bytes are read, and a truncated or rotated file is followed again from its start.
+     *
+     * @param file The file to follow
+     * @param listener The listener of the appended lines
+     * @return The follower, to be closed to stop following the file
+     * @throws DoNotExistsException if the file does not exist
+     */
+    public static FileFollower follow(File file, LineListener listener) throws DoNotExistsException {
+        return new FileFollower(file, listener, FileFollower.DEFAULT_POLL_INTERVAL, false);
+    }
+
+    /**
+     * Opens a reader on a file, starting at a byte offset.
+     * @param file The file to read
+     * @param offset The byte offset to start reading from
+     * @return A reader decoding the file with the default charset
+     * @throws IOException if the file can't be opened
+     */
+    static BufferedReader openReader(File file, long offset) throws IOException {
+        return openReader(file, offset, Charset.defaultCharset());
+    }
+
+    /**
+     * Opens a reader on a file, starting at a byte offset.
+     * A compressed file read from its start is decompressed as it is read.
+     * @param file The file to read
+     * @param offset The byte offset to start reading from
+     * @param charset The charset of the file
+     * @return A reader decoding the file with the charset
+     * @throws IOException if the file can't be opened
+     */
+    static BufferedReader openReader(File file, long offset, Charset charset) throws IOException {
+        if (offset == 0 && GzipFiles.isGzip(file)) return GzipFiles.openReader(file, charset);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+            return new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), charset));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the cached lines of a file.
+     * @param file The file to read
+     * @return The lines of the file, or null if the cache is disabled or the file is too large for it
+     * @throws DoNotExistsException if the file can't be read
+     */
+    private static String[] cachedLines(File file) throws DoNotExistsException {
+        final LineCache lineCache = cache;
+        return lineCache == null ? null : lineCache.lines(file);
+    }
+
+    /**
+     * Discards everything derived from the content of a file, after it has been written.
+     * @param file The file that changed
+     */
+    static void changed(File file) {
+        LineIndex.invalidate(file);
+        GzipBlocks.invalidate(file);
+        final LineCache lineCache = cache;
+        if (lineCache != null) lineCache.invalidate(file);
+        PathResolver.changed(file.getAbsoluteFile().getParentFile());
+    }
+
+    private static synchronized void replaceCache(LineCache newCache) {
+        final LineCache previous = cache;
+        cache = newCache;
+        if (previous == null) return;
+        try {
+            previous.close();
+        } catch (IOException ignored) {
+            // only stops watching
+        }
+    }
+
+    /**
+     * Runs a search on a file.
+     * @param file The file to search
+     * @param search The search to run
+     * @param maxHits The maximum number of hits
+     * @return The hits, in the order of the file
+     * @throws DoNotExistsException if the file can't be read
+     */
+    private static Stream<SearchHit> search(File file, LineSearch search, int maxHits) throws DoNotExistsException {
+        if (maxHits < 0) throw new IllegalArgumentException();
+        try {
+            return search.search(file, maxHits);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+    }
+
+    /**
+     * Replaces lines of a file with new lines, copying the rest of the file as it is.
+     * <p>
+     * With {@link Durability#IN_PLACE_TAIL}, edits close enough to the end of the file are done in place,
+     * truncating the file at the first edited line and appending the new lines followed by the lines after
+     * the edit. Otherwise the file is always replaced atomically.
+     *
+     * @param file The file to rewrite
+     * @param index The index of the file
+     * @param start The line number to start replacing from
+     * @param end The line number to stop replacing at, {@code start - 1} to only insert the new lines
+     * @param lines The new lines
+     * @param durability What to sync, or whether to allow in place edits
+     * @throws IOException if the file can't be rewritten
+     */
+    private static void rewrite(File file, LineIndex index, int start, int end, String[] lines,
+                                Durability durability) throws IOException {
+        final long from = index.startOf(start - 1);
+        final long to = index.startOf(end);
+        if (durability == Durability.IN_PLACE_TAIL && index.length() - to <= TAIL_EDIT_LIMIT) {
+            FileRewriter.replaceTail(file, from, to, lines);
+            return;
+        }
+        try (FileRewriter rewriter = FileRewriter.open(file, durability)) {
+            rewriter.copy(0, from);
+            for (String line : lines) rewriter.write(line);
+            rewriter.copy(to, index.length());
+            rewriter.commit();
+        }
+    }
+
+    /**
+     * Replaces lines of a compressed file with new lines, streaming its decompressed content
+     * into a new compressed file that replaces it atomically.
+     *
+     * @param file The file to rewrite
+     * @param start The line number to start replacing from, at least 1
+     * @param end The line number to stop replacing at, {@code start - 1} to only insert the new lines
+     * @param replacement Writes the new lines
+     * @param durability What to sync
+     * @throws DoNotExistsException if the file can't be rewritten
+     * @throws IndexOutOfBoundsException if the file has fewer lines than {@code start} or {@code end}
+     */
+    private static void rewriteCompressed(File file, int start, int end, AtomicFiles.Content replacement,
+                                          Durability durability) throws DoNotExistsException {
+        try (BufferedReader reader = openReader(file, 0)) {
+            AtomicFiles.write(file, durability, writer -> {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (++lineNumber == start) replacement.writeTo(writer);
+                    if (lineNumber < start || lineNumber > end) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                }
+                if (start > lineNumber || end > lineNumber) throw new IndexOutOfBoundsException();
+            });
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        } finally {
+            changed(file);
+        }
+    }
+
+    /**
+     * Reads lines of a compressed file, decompressing only the blocks holding them when it is made of blocks,
+     * or the whole file up to the last requested line.
+     * @throws IndexOutOfBoundsException if the file has fewer lines than {@code start} or {@code end}
+     */
+    private static List<String> compressedLines(File file, int start, int end) throws DoNotExistsException {
+        if (start < 0 || end < 0) throw new IndexOutOfBoundsException();
+        final int first = Math.max(start, 1);
+        try (GzipBlocks blocks = openBlocks(file)) {
+            if (blocks != null) {
+                if (start > blocks.lineCount() || end > blocks.lineCount()) throw new IndexOutOfBoundsException();
+                return first <= end ? blocks.lines(first - 1, end, Charset.defaultCharset()) : new ArrayList<>();
+            }
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+        final List<String> lines = new ArrayList<>();
+        final int last = Math.max(start, end);
+        final long[] count = new long[1];
+        if (last > 0) {
+            scanLines(file, (index, line) -> {
+                if (index >= first - 1 && index < end) lines.add(line.toString());
+                count[0] = index + 1;
+                return count[0] < last;
+            });
+        }
+        if (last > count[0]) throw new IndexOutOfBoundsException();
+        return lines;
+    }
+
+    /**
+     * Opens the blocks of a compressed file, if its lines can be read at random.
+     * @return The blocks, or null if the file isn't made of blocks or the default charset has multibyte terminators
+     */
+    private static GzipBlocks openBlocks(File file) throws IOException {
+        return LineScanner.isByteDelimited(Charset.defaultCharset()) ? GzipBlocks.open(file) : null;
+    }
+
+    /**
+     * Writes lines, each one followed by a line separator.
+     */
+    private static AtomicFiles.Content linesOf(String[] lines) {
+        return writer -> {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        };
+    }
+
+    /**
+     * Opens a writer appending to a file, a compressed file being appended a new gzip member.
+     */
+    private static BufferedWriter appendWriter(File file, Charset charset, boolean compressed) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        if (compressed) out = GzipFiles.compress(out);
+        return new BufferedWriter(new OutputStreamWriter(out, charset));
+    }
+
+    /**
+     * Copies all the bytes of a channel to another channel, from the current position of the target.
+     * @param source The channel to copy from
+     * @param target The channel to copy to
+     * @throws IOException if the bytes can't be copied
+     */
+    private static void transfer(FileChannel source, FileChannel target) throws IOException {
+        final long size = source.size();
+        long position = 0;
+        while (position < size) {
+            final long transferred = source.transferTo(position, size - position, target);
+            if (transferred <= 0) throw new IOException("Unexpected end of file");
+            position += transferred;
+        }
+    }
+
+    /**
+     * Checks whether a file encoded with a charset lacks a line terminator at its end.
+     * With charsets whose line terminators aren't single bytes, the last bytes of the file are compared
+     * to the encoded terminators, since adding a {@code '\n'} byte like {@link #lineCheck(File)} does
+     * would corrupt the file.
+     * @param file The file to check
+     * @param charset The charset of the file
+     * @return true if a line separator must be written before appending lines
+     * @throws IOException if the file can't be read
+     */
+    private static boolean lacksTerminator(File file, Charset charset) throws IOException {
+        if (LineScanner.isByteDelimited(charset)) return lineCheck(file);
+        if (!file.exists()) return false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size == 0) return false;
+            for (String terminator : new String[]{"\n", "\r"}) {
+                // encoded twice, so a byte order mark written by the encoder isn't part of the terminator
+                final byte[] once = terminator.getBytes(charset);
+                final byte[] twice = (terminator + terminator).getBytes(charset);
+                final byte[] encoded = Arrays.copyOfRange(twice, once.length, twice.length);
+                if (size < encoded.length) continue;
+                final ByteBuffer tail = ByteBuffer.allocate(encoded.length);
+                while (tail.hasRemaining()) {
+                    if (channel.read(tail, size - encoded.length + tail.position()) < 0) break;
+                }
+                if (Arrays.equals(tail.array(), encoded)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Gets the charset encoding like a charset, but without the byte order mark it writes first, if any.
+     * @param charset The charset
+     * @return The charset of the same byte order without a byte order mark, or the charset itself
+     */
+    private static Charset withoutByteOrderMark(Charset charset) {
+        if (!charset.canEncode()) return charset;
+        final byte[] once = "\n".getBytes(charset);
+        final byte[] twice = "\n\n".getBytes(charset);
+        final int mark = 2 * once.length - twice.length;
+        if (mark <= 0) return charset;
+        final byte[] written = Arrays.copyOf(once, mark);
+        for (Charset plain : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16BE, StandardCharsets.UTF_16LE,
+                Charset.forName("UTF-32BE"), Charset.forName("UTF-32LE")}) {
+            if (Arrays.equals(written, "\uFEFF".getBytes(plain))) return plain;
+        }
+        return charset;
     }
 
-    private static boolean lineCheck(File file) {
+    static boolean lineCheck(File file) {
         try {
             RandomAccessFile raf = new RandomAccessFile(file, "rw");
             long length = raf.length();
@@ -390,6 +1454,7 @@ public final class FileManager {
                 byte lastByte = raf.readByte();
                 if (lastByte != '\n' && lastByte != '\r') {
                     raf.writeByte('\n'); // Add newline character if not present
+                    changed(file);
                 }
             }
             raf.close();
@@ -0,0 +1,24 @@
+package systemx.utils;
+
+import java.io.File;
+
+
+/**
+ * An operation run on every file of a bulk execution.
+ *
+ * @param <R> The type of the result of the operation
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see BulkOperations
+ */
+@FunctionalInterface
+public interface FileOperation<R> {
+
+    /**
+     * Runs the operation on a file.
+     * @param file The file to run the operation on
+     * @return The result of the operation
+     * @throws Exception if the operation failed on the file
+     */
+    R apply(File file) throws Exception;
+}
@@ -0,0 +1,27 @@
+package systemx.utils;
+
+import java.io.File;
+
+
+/**
+ * The outcome of an operation run on one file of a bulk execution:
+ * either the result of the operation or the exception it threw.
+ *
+ * @param file The file the operation ran on
+ * @param value The result of the operation, null if it failed
+ * @param error The exception thrown by the operation, null if it succeeded
+ * @param <R> The type of the result of the operation
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see BulkOperations
+ */
+public record FileResult<R>(File file, R value, Throwable error) {
+
+    /**
+     * Checks if the operation succeeded.
+     * @return true if the operation returned a result, false if it threw an exception
+     */
+    public boolean succeeded() {
+        return error == null;
+    }
+}
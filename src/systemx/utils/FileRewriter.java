@@ -0,0 +1,250 @@
+package systemx.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Rewrites a file by streaming it into a temporary file.
+ * <p>
+ * The untouched byte ranges of the file are copied with {@link FileChannel#transferTo}, letting the
+ * kernel do the copy, and only the new lines are encoded. Once committed, the temporary file replaces
+ * the file atomically; the file is left untouched if the rewriter is closed without being committed.
+ * The memory used doesn't depend on the size of the file.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class FileRewriter implements Closeable {
+
+    /**
+     * The size of the buffer the new lines are encoded in.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final FileChannel source;
+    private final Path temp;
+    private final FileChannel target;
+    private final Durability durability;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] separator = System.lineSeparator().getBytes(charset);
+    private boolean committed;
+
+    private FileRewriter(File file, FileChannel source, Path temp, FileChannel target, Durability durability) {
+        this.file = file;
+        this.source = source;
+        this.temp = temp;
+        this.target = target;
+        this.durability = durability;
+    }
+
+    /**
+     * Starts rewriting a file.
+     *
+     * @param file The file to rewrite
+     * @return A rewriter of the file
+     * @throws IOException if the file can't be read or the temporary file can't be created
+     */
+    static FileRewriter open(File file) throws IOException {
+        return open(file, Durability.NONE);
+    }
+
+    /**
+     * Starts rewriting a file, syncing the rewrite as far as a durability level asks once committed.
+     *
+     * @param file The file to rewrite
+     * @param durability What to sync on commit
+     * @return A rewriter of the file
+     * @throws IOException if the file can't be read or the temporary file can't be created
+     */
+    static FileRewriter open(File file, Durability durability) throws IOException {
+        final FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        Path temp = null;
+        try {
+            temp = AtomicFiles.createSibling(file);
+            return new FileRewriter(file, source, temp, FileChannel.open(temp, StandardOpenOption.WRITE), durability);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            AtomicFiles.discard(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the end of a file in place, without copying the rest of the file.
+     * <p>
+     * The bytes following the replaced range are read in memory, then the file is truncated
+     * at the start of the range and the new lines are appended, followed by those bytes.
+     * This only costs the size of the change, but unlike a rewrite it isn't atomic: a crash
+     * may leave the file truncated.
+     *
+     * @param file The file to edit
+     * @param from The offset of the first byte to replace
+     * @param to The offset following the last byte to replace
+     * @param lines The new lines, each followed by the line separator
+     * @throws IOException if the file can't be edited
+     */
+    static void replaceTail(File file, long from, long to, String[] lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer suffix = ByteBuffer.allocate(Math.toIntExact(channel.size() - to));
+            while (suffix.hasRemaining()) {
+                if (channel.read(suffix, to + suffix.position()) < 0) throw new IOException("Unexpected end of file");
+            }
+            suffix.flip();
+
+            final Charset charset = Charset.defaultCharset();
+            final byte[] separator = System.lineSeparator().getBytes(charset);
+            long position = from;
+            for (String line : lines) {
+                position += writeFully(channel, ByteBuffer.wrap(line.getBytes(charset)), position);
+                position += writeFully(channel, ByteBuffer.wrap(separator), position);
+            }
+            position += writeFully(channel, suffix, position);
+            channel.truncate(position);
+        } finally {
+            FileManager.changed(file);
+        }
+    }
+
+    /**
+     * Copies a byte range of the file as it is.
+     *
+     * @param from The offset of the first byte to copy
+     * @param to The offset following the last byte to copy
+     * @throws IOException if the range can't be copied
+     */
+    void copy(long from, long to) throws IOException {
+        flush();
+        transfer(source, from, to);
+    }
+
+    /**
+     * Copies the content of another file as it is, followed by a line separator
+     * if it doesn't end with a line terminator. A compressed file is copied line by line
+     * from its decompressed content.
+     *
+     * @param other The file to copy
+     * @throws IOException if the file can't be copied
+     */
+    void copy(File other) throws IOException {
+        if (GzipFiles.isGzip(other)) {
+            try (BufferedReader reader = FileManager.openReader(other, 0, charset)) {
+                String line;
+                while ((line = reader.readLine()) != null) write(line);
+            }
+            return;
+        }
+        flush();
+        try (FileChannel channel = FileChannel.open(other.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size == 0) return;
+            transfer(channel, 0, size);
+            final ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n' && last.get(0) != '\r') write(separator);
+        }
+    }
+
+    /**
+     * Writes a new line, followed by the line separator.
+     *
+     * @param line The line to write
+     * @throws IOException if the line can't be written
+     */
+    void write(String line) throws IOException {
+        write(line.getBytes(charset));
+        write(separator);
+    }
+
+    /**
+     * Writes raw bytes, which must hold whole lines with their line terminators.
+     *
+     * @param bytes The bytes to write
+     * @param offset The offset of the first byte to write
+     * @param length The number of bytes to write
+     * @throws IOException if the bytes can't be written
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        flush();
+        final ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+        while (wrapped.hasRemaining()) target.write(wrapped);
+    }
+
+    /**
+     * Writes the line separator, ending a line copied without its line terminator.
+     *
+     * @throws IOException if the separator can't be written
+     */
+    void endLine() throws IOException {
+        write(separator);
+    }
+
+    /**
+     * Replaces the file with what has been written so far.
+     *
+     * @throws IOException if the file can't be replaced
+     */
+    void commit() throws IOException {
+        flush();
+        if (durability.syncsData()) target.force(true);
+        target.close();
+        source.close();
+        AtomicFiles.commit(temp, file, Durability.NONE);
+        if (durability.syncsDirectory()) AtomicFiles.syncDirectory(file);
+        committed = true;
+        FileManager.changed(file);
+    }
+
+    /**
+     * Releases the file, discarding the rewrite if it hasn't been committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) return;
+        try {
+            target.close();
+            source.close();
+        } finally {
+            AtomicFiles.discard(temp);
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        final int length = bytes.remaining();
+        while (bytes.hasRemaining()) channel.write(bytes, position + length - bytes.remaining());
+        return length;
+    }
+
+    private void transfer(FileChannel channel, long from, long to) throws IOException {
+        while (from < to) {
+            final long transferred = channel.transferTo(from, to - from, target);
+            if (transferred <= 0) throw new IOException("Unexpected end of file");
+            from += transferred;
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) flush();
+            final int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) target.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,332 @@
+package systemx.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A utility class searching the lines of every file of a directory tree, like {@code grep -r}.
+ * <p>
+ * The search is a pipeline of three stages, running on virtual threads and connected by bounded queues:
+ * a walker listing the directories through {@link PathResolver} and keeping the files accepted by the
+ * glob filters, readers loading the files, and matchers searching them with the same engine as
+ * {@link FileManager#search(File, String)}. Every stage works while the others wait on the disk, and the
+ * bounded queues keep a fast stage from running too far ahead of the slow ones.
+ * <p>
+ * Readers skip the binary files, recognised by a {@code NUL} byte in their first {@value #SNIFF_SIZE} bytes.
+ * Small files are read in memory while large files are mapped. Files that can't be read are skipped.
+ * The hits of a file are streamed in the order of the file, but the files come in no particular order.
+ * The returned stream should be closed, which stops the search. If a stage fails unexpectedly, the search
+ * stops and the stream rethrows the failure instead of ending.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class FileSearch {
+    private FileSearch() {}
+
+    /**
+     * The number of leading bytes checked for a {@code NUL} byte to detect binary files.
+     */
+    public static final int SNIFF_SIZE = 8 << 10;
+
+    /**
+     * The size from which files are mapped in memory rather than read.
+     */
+    private static final long MAPPED_READ_THRESHOLD = 1L << 20;
+
+    private static final int FILE_QUEUE_SIZE = 1024;
+    private static final int CONTENT_QUEUE_SIZE = 16;
+    private static final int HIT_QUEUE_SIZE = 4096;
+    private static final int READERS = 4;
+
+    /**
+     * Searches the lines containing a literal in the files of a directory tree.
+     *
+     * @param root The directory to search
+     * @param depth The maximum depth of the subdirectories searched, {@code depth <= 0} meaning only the root directory
+     * @param literal The literal to search
+     * @param globs The glob patterns of the files to search, matched against the relative path of the file when they
+     *              hold a {@code '/'} and against its name otherwise; every file is searched if none is given
+     * @return The matching lines
+     * @throws DoNotExistsException if the root directory does not exist
+     * @throws IllegalArgumentException if the literal contains a line terminator
+     */
+    public static Stream<FileHit> search(File root, Integer depth, String literal, String... globs) throws DoNotExistsException {
+        return search(root, depth, LineSearch.literal(literal), globs);
+    }
+
+    /**
+     * Searches the lines in which a regular expression is found in the files of a directory tree.
+     *
+     * @param root The directory to search
+     * @param depth The maximum depth of the subdirectories searched, {@code depth <= 0} meaning only the root directory
+     * @param pattern The regular expression to find
+     * @param globs The glob patterns of the files to search, matched against the relative path of the file when they
+     *              hold a {@code '/'} and against its name otherwise; every file is searched if none is given
+     * @return The matching lines
+     * @throws DoNotExistsException if the root directory does not exist
+     */
+    public static Stream<FileHit> search(File root, Integer depth, Pattern pattern, String... globs) throws DoNotExistsException {
+        return search(root, depth, LineSearch.regex(pattern), globs);
+    }
+
+    private static Stream<FileHit> search(File root, Integer depth, LineSearch search, String[] globs) throws DoNotExistsException {
+        if (PathResolver.checkNull(root)) throw new NullPointerException();
+        if (!PathResolver.doesDirectoryExists(root)) throw new DoNotExistsException(root);
+        final List<Glob> filters = new ArrayList<>();
+        for (String glob : globs) {
+            filters.add(new Glob(FileSystems.getDefault().getPathMatcher("glob:" + glob), glob.indexOf('/') >= 0));
+        }
+        final Pipeline pipeline = new Pipeline(root, depth == null ? 0 : depth, search, filters);
+        return StreamSupport.stream(pipeline, false).onClose(pipeline::close);
+    }
+
+    /**
+     * A glob filter, matched against the relative path of the files or only their name.
+     */
+    private record Glob(PathMatcher matcher, boolean wholePath) {}
+
+    /**
+     * The content of a file to search: in a buffer, or null when the file is too large to be mapped at once
+     * or is compressed, to be searched as it is read.
+     */
+    private record Content(File file, ByteBuffer bytes) {}
+
+    /**
+     * The stages of a search, streaming the hits of the matchers.
+     */
+    private static final class Pipeline extends Spliterators.AbstractSpliterator<FileHit> {
+        private static final File NO_FILE = new File("");
+        private static final Content NO_CONTENT = new Content(NO_FILE, null);
+        private static final FileHit NO_HIT = new FileHit(NO_FILE, 0, 0, null);
+
+        private final File root;
+        private final LineSearch search;
+        private final List<Glob> filters;
+        private final BlockingQueue<File> files = new ArrayBlockingQueue<>(FILE_QUEUE_SIZE);
+        private final BlockingQueue<Content> contents = new ArrayBlockingQueue<>(CONTENT_QUEUE_SIZE);
+        private final BlockingQueue<FileHit> hits = new ArrayBlockingQueue<>(HIT_QUEUE_SIZE);
+        private final int matchers = Runtime.getRuntime().availableProcessors();
+        private final AtomicInteger readersLeft = new AtomicInteger(READERS);
+        private final AtomicInteger matchersLeft = new AtomicInteger(matchers);
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean closed;
+        private boolean done;
+
+        Pipeline(File root, int depth, LineSearch search, List<Glob> filters) {
+            super(Long.MAX_VALUE, Spliterator.NONNULL);
+            this.root = root;
+            this.search = search;
+            this.filters = filters;
+            threads.add(Thread.ofVirtual().name("systemx-search-walker").unstarted(() -> walk(depth)));
+            for (int i = 0; i < READERS; i++) threads.add(Thread.ofVirtual().name("systemx-search-reader").unstarted(this::read));
+            for (int i = 0; i < matchers; i++) threads.add(Thread.ofVirtual().name("systemx-search-matcher").unstarted(this::match));
+            for (Thread thread : threads) thread.start();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super FileHit> action) {
+            if (done || closed) return false;
+            try {
+                final FileHit hit = hits.take();
+                if (hit == NO_HIT) {
+                    done = true;
+                    final Throwable failed = failure.get();
+                    if (failed instanceof Error error) throw error;
+                    if (failed != null) throw (RuntimeException) failed;
+                    return false;
+                }
+                action.accept(hit);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return false;
+            }
+        }
+
+        void close() {
+            closed = true;
+            for (Thread thread : threads) thread.interrupt();
+        }
+
+        private boolean stopped() {
+            return closed || failure.get() != null;
+        }
+
+        /**
+         * Stops the search after a stage failed, handing the failure to the stream in place of the hits left.
+         */
+        private void fail(Throwable e) {
+            if (!failure.compareAndSet(null, e)) return;
+            for (Thread thread : threads) {
+                if (thread != Thread.currentThread()) thread.interrupt();
+            }
+            // the other stages can't queue hits anymore once interrupted
+            hits.clear();
+            hits.offer(NO_HIT);
+        }
+
+        /**
+         * Tells the next stage that a stage is done, unless the search is stopped.
+         */
+        private <T> void end(BlockingQueue<T> queue, T sentinel, int count) {
+            if (stopped()) return;
+            try {
+                for (int i = 0; i < count; i++) queue.put(sentinel);
+            } catch (InterruptedException ignored) {
+                // closed
+            }
+        }
+
+        /**
+         * The walker stage, queuing the accepted files of the tree.
+         */
+        private void walk(int depth) {
+            try {
+                walk(root, depth);
+            } catch (InterruptedException ignored) {
+                // closed
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            } finally {
+                end(files, NO_FILE, READERS);
+            }
+        }
+
+        private void walk(File directory, int depth) throws InterruptedException {
+            final File[] entries;
+            try {
+                entries = PathResolver.getFilesInDirectory(directory);
+            } catch (DoNotExistsException e) {
+                return;
+            }
+            if (entries == null) return;
+            for (File entry : entries) {
+                if (stopped()) return;
+                if (entry.isDirectory()) {
+                    if (depth > 0) walk(entry, depth - 1);
+                } else if (entry.isFile() && accepts(entry)) {
+                    files.put(entry);
+                }
+            }
+        }
+
+        private boolean accepts(File file) {
+            if (filters.isEmpty()) return true;
+            final Path relative = root.toPath().relativize(file.toPath());
+            for (Glob glob : filters) {
+                if (glob.matcher.matches(glob.wholePath ? relative : relative.getFileName())) return true;
+            }
+            return false;
+        }
+
+        /**
+         * A reader stage, loading the text files queued by the walker.
+         */
+        private void read() {
+            try {
+                File file;
+                while ((file = files.take()) != NO_FILE) {
+                    final Content content = load(file);
+                    if (content != null) contents.put(content);
+                }
+            } catch (InterruptedException ignored) {
+                // closed
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            } finally {
+                if (readersLeft.decrementAndGet() == 0) end(contents, NO_CONTENT, matchers);
+            }
+        }
+
+        /**
+         * Loads a file, or returns null if it is empty, binary or can't be read.
+         */
+        private static Content load(File file) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size == 0) return null;
+                final ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, SNIFF_SIZE));
+                readFully(channel, head);
+                if (GzipFiles.hasMagic(head)) return new Content(file, null);
+                for (int i = 0; i < head.limit(); i++) {
+                    if (head.get(i) == 0) return null;
+                }
+                if (size > Integer.MAX_VALUE) return new Content(file, null);
+                if (size >= MAPPED_READ_THRESHOLD) return new Content(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                final ByteBuffer bytes = ByteBuffer.allocate((int) size);
+                bytes.put(head.flip());
+                readFully(channel, bytes);
+                return new Content(file, bytes.flip());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Fills a buffer whose position is the offset of the file to read from.
+         */
+        private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) throw new IOException("Unexpected end of file");
+            }
+        }
+
+        /**
+         * A matcher stage, searching the files loaded by the readers.
+         */
+        private void match() {
+            try {
+                Content content;
+                while ((content = contents.take()) != NO_CONTENT) {
+                    if (content.bytes != null) {
+                        emit(content.file, search.find(content.bytes, Integer.MAX_VALUE).iterator());
+                        continue;
+                    }
+                    try (Stream<SearchHit> found = search.search(content.file, Integer.MAX_VALUE)) {
+                        emit(content.file, found.iterator());
+                    } catch (IOException | RuntimeException e) {
+                        // skipped, like the files that can't be read
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // closed
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            } finally {
+                if (matchersLeft.decrementAndGet() == 0) end(hits, NO_HIT, 1);
+            }
+        }
+
+        private void emit(File file, Iterator<SearchHit> found) throws InterruptedException {
+            while (found.hasNext() && !stopped()) {
+                final SearchHit hit = found.next();
+                hits.put(new FileHit(file, hit.lineNumber(), hit.byteOffset(), hit.line()));
+            }
+        }
+    }
+}
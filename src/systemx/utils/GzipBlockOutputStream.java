@@ -0,0 +1,167 @@
+package systemx.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+/**
+ * An output stream compressing the bytes written to it with gzip, in blocks compressed in parallel.
+ * <p>
+ * The bytes are cut in blocks of whole lines of about a fixed size, each one compressed on the common pool
+ * as a complete gzip member, and the members are written in order. A file made of many members is a valid
+ * gzip file, decompressed as the concatenation of the blocks by any gzip reader, and each member records
+ * its sizes and its number of lines, so the file can be read at random by {@link GzipBlocks}. A line longer
+ * than a block makes a larger block. Only a few blocks per processor are held at once, so the memory used
+ * doesn't depend on the amount of bytes written. Flushing the stream compresses the whole lines written
+ * so far, an unterminated last line being kept until it ends or the stream is closed.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class GzipBlockOutputStream extends OutputStream {
+
+    /**
+     * The default size of the blocks, before compression.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * The number of blocks compressed at once per processor.
+     */
+    private static final int BLOCKS_PER_PROCESSOR = 4;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int maxPending = BLOCKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int length;
+    private boolean written;
+    private boolean closed;
+
+    /**
+     * Creates a stream compressing blocks of the default size.
+     * @param out The stream receiving the compressed bytes
+     */
+    GzipBlockOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a stream compressing blocks of a given size.
+     * @param out The stream receiving the compressed bytes
+     * @param blockSize The size of the blocks, before compression
+     */
+    GzipBlockOutputStream(OutputStream out, int blockSize) {
+        if (blockSize <= 0) throw new IllegalArgumentException("blockSize must be positive");
+        this.out = out;
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (length == block.length) cut();
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        ensureOpen();
+        Objects.checkFromIndexSize(offset, count, bytes.length);
+        while (count > 0) {
+            if (length == block.length) cut();
+            final int copied = Math.min(count, block.length - length);
+            System.arraycopy(bytes, offset, block, length, copied);
+            length += copied;
+            offset += copied;
+            count -= copied;
+        }
+    }
+
+    /**
+     * Compresses the whole lines of the current block, then writes every compressed block.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        final int lines = LineSearch.lastLineStart(block, length);
+        if (lines > 0) submit(lines);
+        drain(0);
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining blocks, or an empty member if nothing has been written at all,
+     * then closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            if (length > 0 || !written) submit(length);
+            drain(0);
+        } finally {
+            closed = true;
+            pending.forEach(member -> member.cancel(false));
+            out.close();
+        }
+    }
+
+    /**
+     * Hands the whole lines of the full current block to the common pool, or grows the block
+     * if it holds a single unterminated line.
+     */
+    private void cut() throws IOException {
+        final int lines = LineSearch.lastLineStart(block, length);
+        if (lines == 0) {
+            block = Arrays.copyOf(block, block.length * 2);
+            return;
+        }
+        submit(lines);
+    }
+
+    /**
+     * Hands the first bytes of the current block to the common pool, moving the rest to a new block,
+     * and writes the oldest compressed blocks if too many are pending.
+     */
+    private void submit(int size) throws IOException {
+        final byte[] bytes = block;
+        block = new byte[Math.max(blockSize, 2 * (length - size))];
+        System.arraycopy(bytes, size, block, 0, length - size);
+        length -= size;
+        pending.add(CompletableFuture.supplyAsync(() -> GzipBlocks.deflate(bytes, size)));
+        written = true;
+        drain(maxPending - 1);
+    }
+
+    /**
+     * Writes the oldest compressed blocks until at most a number of blocks are pending.
+     */
+    private void drain(int keep) throws IOException {
+        while (pending.size() > keep) {
+            try {
+                out.write(pending.peek().get());
+                pending.remove();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+}
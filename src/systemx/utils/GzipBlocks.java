@@ -0,0 +1,453 @@
+package systemx.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * A compressed file made of independently compressed blocks of whole lines, read at random.
+ * <p>
+ * Every block is a complete gzip member, so the file is a valid gzip file read by any gzip reader.
+ * The header of each member carries an extra field ({@code "SX"}) holding the compressed size of the
+ * member, the size of its content and the number of lines starting in it. The block index, mapping line
+ * numbers and byte offsets to blocks, is built from these headers alone, reading a few bytes per block
+ * and never decompressing anything. The indexes of the files opened lately are kept in memory and reused
+ * while the size, the last modified time and the key of their file don't change, so opening a large file
+ * again doesn't walk its headers again. Reading lines then only decompresses the blocks
+ * holding them, and reading the whole content decompresses a window of blocks ahead in parallel on the
+ * common {@link ForkJoinPool}.
+ * <p>
+ * Blocks are cut after line terminators, so lines never span two blocks. They are counted on the raw
+ * bytes, which only matches the lines of the content for charsets such as UTF-8, US-ASCII or ISO-8859-1
+ * (see {@link LineScanner#isByteDelimited(Charset)}).
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see GzipBlockOutputStream
+ */
+final class GzipBlocks implements Closeable {
+
+    /**
+     * The size of the header of a block: the gzip header, the length of the extra field and the extra field.
+     */
+    static final int HEADER_SIZE = 28;
+
+    /**
+     * The size of the trailer of a block: the CRC-32 and the size of the content.
+     */
+    private static final int TRAILER_SIZE = 8;
+
+    private static final byte FEXTRA = 4;
+    private static final byte OS_UNKNOWN = (byte) 255;
+    private static final short EXTRA_LENGTH = 16;
+    private static final short SUBFIELD_LENGTH = 12;
+
+    /**
+     * The number of indexes kept in memory, the least recently opened ones being dropped first.
+     */
+    private static final int CACHED_INDEXES = 64;
+
+    private static final Map<Path, Cached> INDEXES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+            return size() > CACHED_INDEXES;
+        }
+    };
+
+    private final FileChannel channel;
+    private final int blockCount;
+    private final long[] offsets;
+    private final long[] firstLines;
+    private final long[] starts;
+
+    private GzipBlocks(FileChannel channel, Index index) {
+        this.channel = channel;
+        this.blockCount = index.blockCount;
+        this.offsets = index.offsets;
+        this.firstLines = index.firstLines;
+        this.starts = index.starts;
+    }
+
+    /**
+     * Opens a compressed file made of blocks, indexing its blocks unless its index is still in memory.
+     *
+     * @param file The file to open
+     * @return The blocks of the file, or null if it is empty or any of its members isn't a block
+     * @throws IOException if the file can't be read
+     */
+    static GzipBlocks open(File file) throws IOException {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final Stamp before = Stamp.of(path);
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            // the stamp only describes the opened file if the path wasn't replaced while opening it
+            final Stamp stamp = Stamp.of(path);
+            final boolean stable = stamp.equals(before) && stamp.size == channel.size();
+            Index index = null;
+            if (stable) {
+                synchronized (INDEXES) {
+                    final Cached cached = INDEXES.get(path);
+                    if (cached != null && cached.stamp.equals(stamp)) index = cached.index;
+                }
+            }
+            if (index == null) {
+                index = index(channel);
+                if (index == null) {
+                    channel.close();
+                    return null;
+                }
+                if (stable && index.size == stamp.size) {
+                    synchronized (INDEXES) {
+                        INDEXES.put(path, new Cached(stamp, index));
+                    }
+                }
+            }
+            return new GzipBlocks(channel, index);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the index of a file kept in memory, if any.
+     * <p>
+     * Must be called whenever the content of the file is changed, since a change that keeps
+     * both the size and the modification time of the file can't be detected otherwise.
+     *
+     * @param file The indexed file
+     */
+    static void invalidate(File file) {
+        synchronized (INDEXES) {
+            INDEXES.remove(file.toPath().toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Walks the headers of the members of a file.
+     */
+    private static Index index(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size == 0) return null;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long[] offsets = new long[64];
+        long[] firstLines = new long[64];
+        long[] starts = new long[64];
+        int count = 0;
+        long offset = 0;
+        long lines = 0;
+        long length = 0;
+        while (offset < size) {
+            if (size - offset < HEADER_SIZE + TRAILER_SIZE) return null;
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, offset + header.position()) < 0) return null;
+            }
+            if (!isBlockHeader(header)) return null;
+            final long compressed = Integer.toUnsignedLong(header.getInt(16));
+            if (compressed < HEADER_SIZE + TRAILER_SIZE || compressed > size - offset) return null;
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                firstLines = Arrays.copyOf(firstLines, firstLines.length * 2);
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            offsets[count] = offset;
+            firstLines[count] = lines;
+            starts[count] = length;
+            count++;
+            offset += compressed;
+            length += Integer.toUnsignedLong(header.getInt(20));
+            lines += Integer.toUnsignedLong(header.getInt(24));
+        }
+        offsets[count] = size;
+        firstLines[count] = lines;
+        starts[count] = length;
+        return new Index(size, count, offsets, firstLines, starts);
+    }
+
+    private static boolean isBlockHeader(ByteBuffer header) {
+        return (header.get(0) & 0xFF) == 0x1F && (header.get(1) & 0xFF) == 0x8B
+                && header.get(2) == Deflater.DEFLATED
+                && header.get(3) == FEXTRA
+                && header.getShort(10) == EXTRA_LENGTH
+                && header.get(12) == 'S' && header.get(13) == 'X'
+                && header.getShort(14) == SUBFIELD_LENGTH;
+    }
+
+    /**
+     * Gets the number of lines of the content.
+     * @return The number of lines
+     */
+    long lineCount() {
+        return firstLines[blockCount];
+    }
+
+    /**
+     * Gets the size of the content.
+     * @return The size of the decompressed content, in bytes
+     */
+    long length() {
+        return starts[blockCount];
+    }
+
+    /**
+     * Gets the number of blocks.
+     * @return The number of blocks
+     */
+    int blockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Reads lines, decompressing only the blocks holding them.
+     *
+     * @param from The index of the first line to read, starting from 0
+     * @param to The index following the last line to read
+     * @param charset The charset of the content
+     * @return The lines, without their line terminators
+     * @throws IOException if a block can't be read or is corrupt
+     * @throws IndexOutOfBoundsException if the lines are out of bounds
+     */
+    List<String> lines(long from, long to, Charset charset) throws IOException {
+        if (from < 0 || to > lineCount() || from > to) throw new IndexOutOfBoundsException();
+        final List<String> lines = new ArrayList<>((int) Math.min(to - from, 1 << 16));
+        if (from == to) return lines;
+        for (int block = blockOf(from); block < blockCount && firstLines[block] < to; block++) {
+            final byte[] bytes = block(block);
+            long line = firstLines[block];
+            int position = 0;
+            while (position < bytes.length && line < to) {
+                int end = position;
+                while (end < bytes.length && bytes[end] != '\n' && bytes[end] != '\r') end++;
+                if (line >= from) lines.add(new String(bytes, position, end - position, charset));
+                line++;
+                position = end + 1;
+                if (end + 1 < bytes.length && bytes[end] == '\r' && bytes[end + 1] == '\n') position++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Finds the block in which a line starts, skipping the blocks without lines.
+     */
+    private int blockOf(long line) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (firstLines[middle] <= line) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @param block The index of the block
+     * @return The content of the block
+     * @throws IOException if the block can't be read or is corrupt
+     */
+    byte[] block(int block) throws IOException {
+        final int compressed = Math.toIntExact(offsets[block + 1] - offsets[block]);
+        final ByteBuffer member = ByteBuffer.allocate(compressed).order(ByteOrder.LITTLE_ENDIAN);
+        while (member.hasRemaining()) {
+            if (channel.read(member, offsets[block] + member.position()) < 0) throw new IOException("Truncated block");
+        }
+        final byte[] content = new byte[Math.toIntExact(starts[block + 1] - starts[block])];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member.array(), HEADER_SIZE, compressed - HEADER_SIZE - TRAILER_SIZE);
+            int inflated = 0;
+            while (inflated < content.length && !inflater.finished()) {
+                final int count = inflater.inflate(content, inflated, content.length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += count;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(content, 0, inflated);
+            if (inflated != content.length || (int) crc.getValue() != member.getInt(compressed - TRAILER_SIZE)) {
+                throw new IOException("Corrupt block at offset " + offsets[block]);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block at offset " + offsets[block], e);
+        } finally {
+            inflater.end();
+        }
+        return content;
+    }
+
+    /**
+     * Opens a stream of the whole content, decompressing the following blocks in parallel.
+     * The stream closes the blocks once closed.
+     *
+     * @return The decompressed content
+     */
+    InputStream openInput() {
+        return new BlockInputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Compresses a block of lines into a gzip member.
+     *
+     * @param bytes The lines, every one but the last one followed by its line terminator
+     * @param size The number of bytes of the block
+     * @return The gzip member
+     */
+    static byte[] deflate(byte[] bytes, int size) {
+        final ByteArrayOutputStream member = new ByteArrayOutputStream(size / 2 + HEADER_SIZE + TRAILER_SIZE);
+        member.writeBytes(new byte[HEADER_SIZE]);
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes, 0, size);
+            deflater.finish();
+            final byte[] buffer = new byte[Math.max(512, Math.min(size, 1 << 16))];
+            while (!deflater.finished()) member.write(buffer, 0, deflater.deflate(buffer));
+        } finally {
+            deflater.end();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, size);
+        final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        member.writeBytes(trailer.putInt((int) crc.getValue()).putInt(size).array());
+
+        final byte[] result = member.toByteArray();
+        ByteBuffer.wrap(result).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 0x1F).put((byte) 0x8B).put((byte) Deflater.DEFLATED).put(FEXTRA)
+                .putInt(0).put((byte) 0).put(OS_UNKNOWN)
+                .putShort(EXTRA_LENGTH).put((byte) 'S').put((byte) 'X').putShort(SUBFIELD_LENGTH)
+                .putInt(result.length).putInt(size).putInt(Math.toIntExact(lineStarts(bytes, size)));
+        return result;
+    }
+
+    /**
+     * Counts the lines of a block: its line terminators, plus a last line without one.
+     */
+    private static long lineStarts(byte[] bytes, int size) {
+        if (size == 0) return 0;
+        final long terminators = LineCounter.terminators(ByteBuffer.wrap(bytes, 0, size));
+        final byte last = bytes[size - 1];
+        return last == '\n' || last == '\r' ? terminators : terminators + 1;
+    }
+
+    /**
+     * The block index of a file of a given size, shared by every opening of the file while it doesn't change.
+     */
+    private record Index(long size, int blockCount, long[] offsets, long[] firstLines, long[] starts) {}
+
+    /**
+     * The attributes of a file telling whether it changed.
+     */
+    private record Stamp(long size, long modified, Object fileKey) {
+        static Stamp of(Path path) throws IOException {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Stamp(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), attributes.fileKey());
+        }
+    }
+
+    private record Cached(Stamp stamp, Index index) {}
+
+    /**
+     * Streams the blocks in order, decompressing a window of blocks ahead in parallel.
+     */
+    private final class BlockInputStream extends InputStream {
+        private final int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private byte[] current = new byte[0];
+        private int position;
+        private int submitted;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, bytes.length);
+            if (length == 0) return 0;
+            if (!fill()) return -1;
+            final int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Moves to the next block holding bytes, if the current one is exhausted.
+         * @return false at the end of the content
+         */
+        private boolean fill() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            while (position == current.length) {
+                while (pending.size() < window && submitted < blockCount) {
+                    final int block = submitted++;
+                    pending.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return block(block);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                if (pending.isEmpty()) return false;
+                try {
+                    current = pending.remove().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException unchecked) throw unchecked.getCause();
+                    throw new IOException(e.getCause());
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            for (CompletableFuture<byte[]> block : pending) block.cancel(false);
+            pending.clear();
+            GzipBlocks.this.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package systemx.utils;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * A utility class reading and writing gzip compressed files.
+ * <p>
+ * A file is compressed if it starts with the gzip magic bytes, or, when it doesn't exist yet or is empty,
+ * if its name ends with {@code .gz}. A compressed file may hold many gzip members one after the other,
+ * as written by {@link GzipBlockOutputStream} or by appending to it, and is read as the concatenation of
+ * their content. An empty file is read as an empty content. The files written by this class are made of
+ * line-aligned blocks, which can be read at random through {@link GzipBlocks}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class GzipFiles {
+    private GzipFiles() {}
+
+    /**
+     * The extension of compressed files.
+     */
+    static final String EXTENSION = ".gz";
+
+    /**
+     * The two bytes every gzip member starts with.
+     */
+    private static final int MAGIC_1 = 0x1F;
+    private static final int MAGIC_2 = 0x8B;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Checks whether a file is compressed, from its magic bytes or, lacking content, from its name.
+     *
+     * @param file The file
+     * @return true if the file is compressed with gzip
+     */
+    static boolean isGzip(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // reads the two first bytes, if any
+            }
+            if (magic.position() > 0) return hasMagic(magic.flip());
+        } catch (IOException e) {
+            // doesn't exist or can't be read: named
+        }
+        return hasExtension(file);
+    }
+
+    /**
+     * Checks whether the first bytes of a file are the gzip magic bytes.
+     *
+     * @param head The first bytes of the file, from position 0 to the limit
+     * @return true if the bytes start a gzip member
+     */
+    static boolean hasMagic(ByteBuffer head) {
+        return head.limit() >= 2 && (head.get(0) & 0xFF) == MAGIC_1 && (head.get(1) & 0xFF) == MAGIC_2;
+    }
+
+    /**
+     * Checks whether the name of a file ends with the extension of compressed files.
+     *
+     * @param file The file
+     * @return true if the file is named as a compressed file
+     */
+    static boolean hasExtension(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+
+    /**
+     * Opens a compressed file, reading its decompressed content.
+     * A file made of {@link GzipBlocks blocks} is decompressed in parallel.
+     *
+     * @param file The file to read
+     * @return The decompressed content of every member of the file
+     * @throws IOException if the file can't be read or isn't compressed with gzip
+     */
+    static InputStream openInput(File file) throws IOException {
+        final GzipBlocks blocks = GzipBlocks.open(file);
+        if (blocks != null) return blocks.openInput();
+        final PushbackInputStream in = new PushbackInputStream(new FileInputStream(file), 1);
+        try {
+            final int first = in.read();
+            if (first < 0) {
+                in.close();
+                return InputStream.nullInputStream();
+            }
+            in.unread(first);
+            // reads the members one after the other, the input stream of a file telling how much is left
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (EOFException e) {
+            in.close();
+            throw new IOException("Truncated gzip file: " + file, e);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a reader decoding the decompressed content of a compressed file.
+     *
+     * @param file The file to read
+     * @param charset The charset of the content
+     * @return A reader of the content
+     * @throws IOException if the file can't be read or isn't compressed with gzip
+     */
+    static BufferedReader openReader(File file, Charset charset) throws IOException {
+        return new BufferedReader(new InputStreamReader(openInput(file), charset));
+    }
+
+    /**
+     * Wraps a stream so the bytes written to it are compressed, in parallel blocks.
+     *
+     * @param out The stream receiving the compressed bytes
+     * @return The compressing stream, closing {@code out} once closed
+     */
+    static OutputStream compress(OutputStream out) {
+        return new GzipBlockOutputStream(out);
+    }
+}
@@ -0,0 +1,407 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+/**
+ * A file edited through a write-ahead journal.
+ * <p>
+ * Every edit is appended to a journal stored next to the file as a hidden {@code .<name>.journal} file,
+ * and the journal is synced before the edit returns, so an edit that returned survives a crash. The edits
+ * are applied to an {@link EditableFile} in memory, where they are immediately visible through this
+ * object, and are only written to the file itself by a checkpoint, which replaces the file atomically
+ * with all the edits at once, then empties the journal. A checkpoint is made once the journal grows past
+ * a size, when {@link #checkpoint()} is called and when the file is closed, so the cost of rewriting the
+ * file is shared by many edits.
+ * <p>
+ * The journal header records the size, the modification time and the key of the file it applies to.
+ * When the file is opened with a journal left by a crash, the journal is replayed if it still matches
+ * the file, then checkpointed. A journal that doesn't match, because the crash happened after the file
+ * was replaced but before the journal was emptied, or because the file was changed by something else,
+ * is discarded. A record cut short by the crash is discarded as well, along with anything after it: it
+ * was never acknowledged.
+ * <p>
+ * Other readers of the file only see the edits once they are checkpointed.
+ * Line numbers start from 1, like the line edits of {@link FileManager}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#openJournaled(File)
+ */
+public final class JournaledFile implements Closeable {
+
+    /**
+     * The size of the journal past which the edits are checkpointed by default, in bytes.
+     */
+    public static final long DEFAULT_CHECKPOINT_SIZE = 4L << 20;
+
+    /**
+     * The suffix of the journal files.
+     */
+    static final String SUFFIX = ".journal";
+
+    /**
+     * The magic number at the start of every journal file ({@code "SYSXJRNL"}).
+     */
+    private static final long MAGIC = 0x5359_5358_4A52_4E4CL;
+
+    /**
+     * The size of the journal header: magic, file size, file modification time and file key hash.
+     */
+    private static final int HEADER_SIZE = 3 * Long.BYTES + Integer.BYTES;
+
+    /**
+     * The size of the frame of a record: the length and the checksum of its payload.
+     */
+    private static final int FRAME_SIZE = 2 * Integer.BYTES;
+
+    private static final byte INSERT = 1;
+    private static final byte OVERRIDE = 2;
+    private static final byte DELETE = 3;
+
+    private final File file;
+    private final Path journal;
+    private final long checkpointSize;
+    private EditableFile content;
+    private FileChannel channel;
+    private long length;
+
+    private JournaledFile(File file, long checkpointSize) {
+        this.file = file.getAbsoluteFile();
+        this.journal = journalFile(file).toPath();
+        this.checkpointSize = checkpointSize;
+    }
+
+    /**
+     * Opens a file for journaled editing, replaying the edits left by a crash.
+     *
+     * @param file The file to edit
+     * @return The journaled file
+     * @throws IOException if the file or its journal can't be read or written
+     */
+    public static JournaledFile open(File file) throws IOException {
+        return open(file, DEFAULT_CHECKPOINT_SIZE);
+    }
+
+    /**
+     * Opens a file for journaled editing, replaying the edits left by a crash.
+     *
+     * @param file The file to edit
+     * @param checkpointSize The size of the journal past which the edits are checkpointed, in bytes
+     * @return The journaled file
+     * @throws IOException if the file or its journal can't be read or written
+     * @throws IllegalArgumentException if the checkpoint size isn't positive
+     */
+    public static JournaledFile open(File file, long checkpointSize) throws IOException {
+        if (checkpointSize <= 0) throw new IllegalArgumentException("checkpointSize must be positive");
+        final JournaledFile journaled = new JournaledFile(file, checkpointSize);
+        journaled.content = EditableFile.open(file);
+        try {
+            if (journaled.replay()) journaled.content.flush(Durability.DATA_AND_DIRECTORY);
+            journaled.reset();
+        } catch (IOException | RuntimeException e) {
+            journaled.release();
+            throw e;
+        }
+        return journaled;
+    }
+
+    /**
+     * Gets the journal file of a file.
+     *
+     * @param file The edited file
+     * @return The journal file, stored next to {@code file}
+     */
+    static File journalFile(File file) {
+        final File absolute = file.getAbsoluteFile();
+        return new File(absolute.getParentFile(), "." + absolute.getName() + SUFFIX);
+    }
+
+    /**
+     * Gets the number of lines of the edited content.
+     * @return The number of lines
+     */
+    public synchronized long lineCount() {
+        return content.lineCount();
+    }
+
+    /**
+     * Gets a line of the edited content.
+     * @param lineNumber The line number to get
+     * @return The line
+     * @throws IOException if the file can't be read
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public synchronized String getLine(long lineNumber) throws IOException {
+        return content.getLine(lineNumber);
+    }
+
+    /**
+     * Inserts a line.
+     * @param line The line to insert
+     * @param lineNumber The line number to insert at
+     * @throws IOException if the edit can't be journaled
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void insertLine(String line, long lineNumber) throws IOException {
+        insertLines(new String[]{line}, lineNumber);
+    }
+
+    /**
+     * Inserts lines.
+     * @param lines The lines to insert
+     * @param lineNumber The line number to insert at
+     * @throws IOException if the edit can't be journaled
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public synchronized void insertLines(String[] lines, long lineNumber) throws IOException {
+        checkLine(lineNumber);
+        edit(INSERT, lineNumber, lineNumber, lines);
+    }
+
+    /**
+     * Overrides a line.
+     * @param lineNumber The line number to override
+     * @param newLine The new line
+     * @throws IOException if the edit can't be journaled
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void overrideLine(long lineNumber, String newLine) throws IOException {
+        overrideSection(lineNumber, lineNumber, new String[]{newLine});
+    }
+
+    /**
+     * Overrides a section with lines, which may be more or less than the lines of the section.
+     * @param start The line number to start overriding from
+     * @param end The line number to stop overriding at
+     * @param newLines The lines replacing the section
+     * @throws IOException if the edit can't be journaled
+     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     */
+    public synchronized void overrideSection(long start, long end, String[] newLines) throws IOException {
+        checkSection(start, end);
+        edit(OVERRIDE, start, end, newLines);
+    }
+
+    /**
+     * Deletes a line.
+     * @param lineNumber The line number to delete
+     * @throws IOException if the edit can't be journaled
+     * @throws IndexOutOfBoundsException if the line number is out of bounds
+     */
+    public void deleteLine(long lineNumber) throws IOException {
+        deleteSection(lineNumber, lineNumber);
+    }
+
+    /**
+     * Deletes a section.
+     * @param start The line number to start deleting from
+     * @param end The line number to stop deleting at
+     * @throws IOException if the edit can't be journaled
+     * @throws IndexOutOfBoundsException if the line numbers are out of bounds
+     */
+    public synchronized void deleteSection(long start, long end) throws IOException {
+        checkSection(start, end);
+        edit(DELETE, start, end, new String[0]);
+    }
+
+    /**
+     * Writes the journaled edits to the file, replacing it atomically, then empties the journal.
+     *
+     * @throws IOException if the file or the journal can't be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        ensureOpen();
+        if (length == HEADER_SIZE) return;
+        content.flush(Durability.DATA_AND_DIRECTORY);
+        reset();
+    }
+
+    /**
+     * Checkpoints the journaled edits, then releases the file and deletes the journal.
+     * The edits stay in the journal, to be replayed on the next opening, if they can't be checkpointed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        try {
+            checkpoint();
+            Files.deleteIfExists(journal);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Journals an edit, then applies it in memory once it is on the storage.
+     * The journal is cut back to its previous length if the edit can't be journaled.
+     */
+    private void edit(byte operation, long start, long end, String[] lines) throws IOException {
+        ensureOpen();
+        final ByteBuffer record = encode(operation, start, end, lines);
+        final int size = record.remaining();
+        try {
+            while (record.hasRemaining()) channel.write(record, length + record.position());
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(length);
+            } catch (IOException ignored) {
+                // the partial record fails its checksum on replay
+            }
+            throw e;
+        }
+        length += size;
+        apply(operation, start, end, lines);
+        if (length >= checkpointSize) checkpoint();
+    }
+
+    private void apply(byte operation, long start, long end, String[] lines) {
+        switch (operation) {
+            case INSERT -> content.insertLines(lines, start);
+            case OVERRIDE -> content.overrideSection(start, end, lines);
+            case DELETE -> content.deleteSection(start, end);
+            default -> throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Applies the edits of the journal left by the previous opening, if it matches the file.
+     *
+     * @return true if edits have been applied
+     */
+    private boolean replay() throws IOException {
+        if (!Files.isRegularFile(journal)) return false;
+        try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!readFully(in, header, 0) || header.getLong() != MAGIC || !header.equals(stamp())) return false;
+
+            final CRC32 crc = new CRC32();
+            final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+            long position = HEADER_SIZE;
+            boolean applied = false;
+            while (readFully(in, frame.clear(), position)) {
+                final int size = frame.getInt();
+                final int checksum = frame.getInt();
+                if (size <= 0 || size > in.size() - position - FRAME_SIZE) break;
+                final ByteBuffer payload = ByteBuffer.allocate(size);
+                if (!readFully(in, payload, position + FRAME_SIZE)) break;
+                crc.reset();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) break;
+                try {
+                    final byte operation = payload.get();
+                    final long start = payload.getLong();
+                    final long end = payload.getLong();
+                    final String[] lines = new String[payload.getInt()];
+                    for (int i = 0; i < lines.length; i++) {
+                        final byte[] line = new byte[payload.getInt()];
+                        payload.get(line);
+                        lines[i] = new String(line, StandardCharsets.UTF_8);
+                    }
+                    apply(operation, start, end, lines);
+                } catch (RuntimeException e) {
+                    break;
+                }
+                applied = true;
+                position += FRAME_SIZE + size;
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * Replaces the journal with an empty one, stamped with the current state of the file.
+     */
+    private void reset() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        final Path temp = AtomicFiles.createSibling(journal.toFile());
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).put(stamp());
+            header.flip();
+            while (header.hasRemaining()) out.write(header);
+        } catch (IOException e) {
+            AtomicFiles.discard(temp);
+            throw e;
+        }
+        AtomicFiles.commit(temp, journal.toFile(), Durability.DATA_AND_DIRECTORY);
+        channel = FileChannel.open(journal, StandardOpenOption.WRITE);
+        length = HEADER_SIZE;
+    }
+
+    /**
+     * Gets the part of the journal header identifying the state of the file.
+     */
+    private ByteBuffer stamp() throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return ByteBuffer.allocate(HEADER_SIZE - Long.BYTES)
+                .putLong(attributes.size())
+                .putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                .putInt(Objects.hashCode(attributes.fileKey()))
+                .flip();
+    }
+
+    private static ByteBuffer encode(byte operation, long start, long end, String[] lines) {
+        final byte[][] encoded = new byte[lines.length][];
+        int size = 1 + 2 * Long.BYTES + Integer.BYTES;
+        for (int i = 0; i < lines.length; i++) {
+            encoded[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+            size = Math.addExact(size, Integer.BYTES + encoded[i].length);
+        }
+        final ByteBuffer record = ByteBuffer.allocate(Math.addExact(FRAME_SIZE, size));
+        record.position(FRAME_SIZE);
+        record.put(operation).putLong(start).putLong(end).putInt(lines.length);
+        for (byte[] line : encoded) record.putInt(line.length).put(line);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), FRAME_SIZE, size);
+        record.putInt(0, size).putInt(Integer.BYTES, (int) crc.getValue());
+        return record.flip();
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) return false;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private void checkLine(long lineNumber) {
+        if (lineNumber < 1 || lineNumber > content.lineCount()) throw new IndexOutOfBoundsException();
+    }
+
+    private void checkSection(long start, long end) {
+        checkLine(start);
+        checkLine(end);
+        if (end < start) throw new IndexOutOfBoundsException();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) throw new IOException("Journal closed: " + journal);
+    }
+
+    private void release() throws IOException {
+        try {
+            if (channel != null) channel.close();
+        } finally {
+            channel = null;
+            content.close();
+        }
+    }
+}
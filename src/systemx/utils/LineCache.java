@@ -0,0 +1,72 @@
+package systemx.utils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A cache of the decoded lines of files, bounded by the memory it holds.
+ * <p>
+ * The entries are validated by the size, the last modified time and the key of their file, and the
+ * directories of the cached files are watched so the lookups of a file that didn't change don't touch
+ * the file system at all (see {@link WatchedCache}). The writes of {@link FileManager} invalidate the
+ * entries of the files they change. Files larger than the limit aren't cached, nor even read.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#enableCache(long)
+ */
+final class LineCache extends WatchedCache<String[]> {
+
+    /**
+     * The estimated memory used by a line besides its characters: the string, its array and the reference.
+     */
+    private static final long LINE_OVERHEAD = 56;
+
+    /**
+     * Creates an empty cache.
+     * @param maxBytes The maximum estimated size of the cached lines, in bytes
+     * @param watch true to watch the directories of the cached files, false to always check the files
+     */
+    LineCache(long maxBytes, boolean watch) {
+        super(maxBytes, watch);
+    }
+
+    /**
+     * Gets the lines of a file, reading them only if they aren't cached or the file changed.
+     * The returned array is shared and must not be modified.
+     *
+     * @param file The file to read
+     * @return The lines of the file, or null if the file is larger than the cache
+     * @throws DoNotExistsException if the file can't be read
+     */
+    String[] lines(File file) throws DoNotExistsException {
+        return get(file);
+    }
+
+    @Override
+    boolean fits(long size, long maxBytes) {
+        return size <= maxBytes;
+    }
+
+    @Override
+    Loaded<String[]> load(File file) throws DoNotExistsException {
+        final List<String> lines = new ArrayList<>();
+        final long[] bytes = {0};
+        FileManager.forEachLine(file, (index, line) -> {
+            lines.add(line);
+            bytes[0] += LINE_OVERHEAD + line.length();
+            return true;
+        });
+        return new Loaded<>(lines.toArray(new String[0]), bytes[0]);
+    }
+
+    @Override
+    Path watchedDirectory(Path file) {
+        return file.getParent();
+    }
+}
@@ -0,0 +1,226 @@
+package systemx.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+
+/**
+ * Counts the lines of a file on its raw bytes.
+ * <p>
+ * The file is split in chunks that are counted in parallel on the common fork-join pool.
+ * Every chunk is read in a direct buffer and scanned eight bytes at a time, looking for line
+ * terminators with bitwise operations on whole {@code long} words rather than byte by byte.
+ * No byte is ever decoded into a character.
+ * <p>
+ * Lines are delimited the same way as {@link java.io.BufferedReader#readLine()} does:
+ * by {@code '\n'}, {@code '\r'} or {@code "\r\n"}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class LineCounter {
+    private LineCounter() {}
+
+    /**
+     * The size of the chunks counted in parallel.
+     */
+    private static final int CHUNK_SIZE = 8 << 20;
+
+    /**
+     * The size of the direct buffers the chunks are read in.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The maximum number of idle buffers kept for reuse.
+     */
+    private static final int POOLED_BUFFERS = 16;
+
+    static final long ONES = 0x0101010101010101L;
+    static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    static final long LF_WORD = ONES * '\n';
+    static final long CR_WORD = ONES * '\r';
+
+    /**
+     * The buffers shared by the reading threads. They are pooled rather than kept per thread,
+     * as a virtual thread only lives for one task and would allocate a new buffer every time.
+     */
+    private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    /**
+     * Counts the lines of a file.
+     *
+     * @param file The file to count the lines of
+     * @return The number of lines of the file
+     * @throws IOException if the file can't be read
+     */
+    static long count(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            return count(size, chunk -> {
+                final long start = (long) chunk * CHUNK_SIZE;
+                try {
+                    return read(channel, start, Math.min(start + CHUNK_SIZE, size));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Counts the lines of a file mapped in consecutive regions.
+     *
+     * @param regions The regions of the file, all but the last one being a multiple of the chunk size
+     * @param size The size of the file
+     * @return The number of lines of the file
+     */
+    static long count(ByteBuffer[] regions, long size) {
+        final int chunksPerRegion = regions.length > 1 ? regions[0].capacity() / CHUNK_SIZE : Integer.MAX_VALUE;
+        return count(size, chunk -> {
+            final ByteBuffer region = regions[chunk / chunksPerRegion];
+            final int start = (chunk % chunksPerRegion) * CHUNK_SIZE;
+            final int length = Math.min(CHUNK_SIZE, region.limit() - start);
+            return scan(region.slice(start, length).order(ByteOrder.LITTLE_ENDIAN), new Tally());
+        });
+    }
+
+    /**
+     * Counts the line terminators of a buffer, a {@code "\r\n"} counting once.
+     *
+     * @param buffer The bytes to count the terminators of, from position 0 to the limit
+     * @return The number of line terminators
+     */
+    static long terminators(ByteBuffer buffer) {
+        final Tally tally = scan(buffer.order(ByteOrder.LITTLE_ENDIAN), new Tally());
+        return tally.lf + tally.cr - tally.crlf;
+    }
+
+    /**
+     * Tallies every chunk of a file in parallel, then adds them up in order.
+     */
+    private static long count(long size, IntFunction<Tally> chunks) {
+        if (size == 0) return 0;
+        final int chunkCount = Math.toIntExact((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        final IntStream indices = IntStream.range(0, chunkCount);
+        final List<Tally> tallies = (chunkCount > 1 ? indices.parallel() : indices).mapToObj(chunks).toList();
+
+        long lines = 0;
+        Tally previous = null;
+        for (Tally tally : tallies) {
+            lines += tally.lf + tally.cr - tally.crlf;
+            if (previous != null && previous.last == '\r' && tally.first == '\n') lines--;
+            previous = tally;
+        }
+        if (previous.last != '\n' && previous.last != '\r') lines++;
+        return lines;
+    }
+
+    /**
+     * Tallies the bytes of a file between two positions.
+     */
+    private static Tally read(FileChannel channel, long start, long end) throws IOException {
+        final ByteBuffer buffer = borrow();
+        try {
+            final Tally tally = new Tally();
+            long position = start;
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity()) buffer.limit((int) (end - position));
+                final int read = channel.read(buffer, position);
+                if (read < 0) throw new IOException("Unexpected end of file");
+                buffer.flip();
+                scan(buffer, tally);
+                position += read;
+            }
+            return tally;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static ByteBuffer borrow() {
+        final ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        POOLED.decrementAndGet();
+        return buffer;
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (POOLED.incrementAndGet() <= POOLED_BUFFERS) BUFFERS.offer(buffer);
+        else POOLED.decrementAndGet();
+    }
+
+    /**
+     * Tallies the line terminators of a buffer, carrying over the state of the previous buffer.
+     */
+    private static Tally scan(ByteBuffer buffer, Tally tally) {
+        final int limit = buffer.limit();
+        if (limit == 0) return tally;
+        if (!tally.started) {
+            tally.first = buffer.get(0);
+            tally.started = true;
+        }
+
+        boolean afterCr = tally.last == '\r';
+        int i = 0;
+        for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+            final long word = buffer.getLong(i);
+            final long lf = matches(word, LF_WORD);
+            final long cr = matches(word, CR_WORD);
+            tally.lf += Long.bitCount(lf);
+            tally.cr += Long.bitCount(cr);
+            tally.crlf += Long.bitCount((cr << Byte.SIZE) & lf);
+            if (afterCr && (lf & 0x80) != 0) tally.crlf++;
+            afterCr = cr < 0;
+        }
+        for (; i < limit; i++) {
+            final byte b = buffer.get(i);
+            if (b == '\n') {
+                tally.lf++;
+                if (afterCr) tally.crlf++;
+            } else if (b == '\r') {
+                tally.cr++;
+            }
+            afterCr = b == '\r';
+        }
+        tally.last = buffer.get(limit - 1);
+        return tally;
+    }
+
+    /**
+     * Finds the bytes of a little-endian word equal to the bytes of a pattern.
+     *
+     * @return A word with the high bit of every matching byte set, and every other bit cleared
+     */
+    static long matches(long word, long pattern) {
+        final long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    /**
+     * The line terminators found in a chunk of a file.
+     */
+    private static final class Tally {
+        long lf;
+        long cr;
+        long crlf;
+        byte first;
+        byte last;
+        boolean started;
+    }
+}
@@ -0,0 +1,82 @@
+package systemx.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * An iterator over the lines of a file.
+ * <p>
+ * Only the buffer of the underlying reader is held in memory, whatever the size of the file.
+ * The cursor must be closed once it is not needed anymore.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#cursor(java.io.File)
+ */
+public final class LineCursor implements Iterator<String>, Closeable {
+    private final BufferedReader reader;
+    private String next;
+    private int index = -1;
+    private boolean done;
+
+    /**
+     * Creates a cursor reading the lines of a reader.
+     * @param reader The reader to read the lines from
+     */
+    LineCursor(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Checks if there is a line left to read.
+     * @return true if there is a line left, false otherwise
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        if (done) return false;
+        try {
+            next = reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        done = next == null;
+        return !done;
+    }
+
+    /**
+     * Reads the next line.
+     * @return The next line, without its line terminator
+     * @throws NoSuchElementException if there is no line left
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String line = next;
+        next = null;
+        index++;
+        return line;
+    }
+
+    /**
+     * Gets the index of the last line returned by {@link #next()}.
+     * @return The index of the line, starting from 0, or -1 if no line has been read yet
+     */
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        next = null;
+        reader.close();
+    }
+}
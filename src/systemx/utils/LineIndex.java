@@ -0,0 +1,311 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A persistent index of the byte offsets at which the lines of a file start.
+ * <p>
+ * The index is built once with a single sequential pass over the file and stored next to it
+ * as a hidden {@code .<name>.lidx} file. The size and the last modified time of the file are
+ * recorded in the index header, and the index is rebuilt as soon as they don't match anymore.
+ * Looking up a line then only costs a seek in the index and a seek in the file.
+ * <p>
+ * Lines are delimited the same way as {@link java.io.BufferedReader#readLine()} does:
+ * by {@code '\n'}, {@code '\r'} or {@code "\r\n"}.
+ * If the index can't be written next to the file, it is kept in memory instead.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class LineIndex implements Closeable {
+
+    /**
+     * The suffix of the index files.
+     */
+    static final String SUFFIX = ".lidx";
+
+    /**
+     * The magic number at the start of every index file ({@code "SYSXLIDX"}).
+     */
+    private static final long MAGIC = 0x5359_5358_4C49_4458L;
+
+    /**
+     * The size of the index header: magic, file size, file modification time and line count.
+     */
+    private static final int HEADER_SIZE = 4 * Long.BYTES;
+
+    /**
+     * The size of the buffer used to scan the file.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final long lineCount;
+    private final ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+
+    private LineIndex(FileChannel channel, long[] offsets, long lineCount) {
+        this.channel = channel;
+        this.offsets = offsets;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Opens the index of a file, building it first if it is missing or out of date.
+     *
+     * @param file The indexed file
+     * @return The index of the file
+     * @throws IOException if the file can't be read
+     */
+    public static LineIndex open(File file) throws IOException {
+        final Path path = file.toPath();
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) throw new IOException("Not a regular file: " + file);
+        final long size = attributes.size();
+        final long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        final Path indexPath = indexFile(file).toPath();
+
+        LineIndex index = load(indexPath, size, modified);
+        if (index == null) index = build(path, indexPath, size, modified);
+        return index;
+    }
+
+    /**
+     * Deletes the index of a file, if any.
+     * <p>
+     * Must be called whenever the content of the file is changed, since a change that keeps
+     * both the size and the modification time of the file can't be detected otherwise.
+     *
+     * @param file The indexed file
+     */
+    public static void invalidate(File file) {
+        try {
+            Files.deleteIfExists(indexFile(file).toPath());
+        } catch (IOException ignored) {
+            // a stale index is still detected through the file attributes
+        }
+    }
+
+    /**
+     * Gets the index file of a file.
+     *
+     * @param file The indexed file
+     * @return The index file, stored next to {@code file}
+     */
+    static File indexFile(File file) {
+        final File absolute = file.getAbsoluteFile();
+        return new File(absolute.getParentFile(), "." + absolute.getName() + SUFFIX);
+    }
+
+    /**
+     * Gets the number of lines of the indexed file.
+     *
+     * @return The number of lines
+     */
+    public long lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gets the byte offset at which a line starts.
+     *
+     * @param line The index of the line, starting from 0.
+     *             {@code line == lineCount()} gives the length of the file.
+     * @return The byte offset of the line
+     * @throws IOException if the index can't be read
+     * @throws IndexOutOfBoundsException if the line is out of bounds
+     */
+    public long startOf(long line) throws IOException {
+        if (line < 0 || line > lineCount) throw new IndexOutOfBoundsException();
+        if (offsets != null) return offsets[(int) line];
+        synchronized (entry) {
+            entry.clear();
+            final long position = HEADER_SIZE + line * Long.BYTES;
+            while (entry.hasRemaining()) {
+                if (channel.read(entry, position + entry.position()) < 0) throw new IOException("Truncated index");
+            }
+            return entry.getLong(0);
+        }
+    }
+
+    /**
+     * Gets the length of the indexed file.
+     *
+     * @return The length of the file, in bytes
+     * @throws IOException if the index can't be read
+     */
+    public long length() throws IOException {
+        return startOf(lineCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    /**
+     * Loads an index file, if it exists and matches the indexed file.
+     */
+    private static LineIndex load(Path indexPath, long size, long modified) {
+        if (!Files.isRegularFile(indexPath)) return null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(indexPath, StandardOpenOption.READ);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) break;
+            }
+            header.flip();
+            if (header.remaining() == HEADER_SIZE
+                    && header.getLong() == MAGIC
+                    && header.getLong() == size
+                    && header.getLong() == modified) {
+                final long lineCount = header.getLong();
+                if (channel.size() == HEADER_SIZE + (lineCount + 1) * Long.BYTES) {
+                    return new LineIndex(channel, null, lineCount);
+                }
+            }
+        } catch (IOException ignored) {
+            // rebuilt below
+        }
+        closeQuietly(channel);
+        return null;
+    }
+
+    /**
+     * Scans a file and persists its index, falling back to an in-memory index.
+     */
+    private static LineIndex build(Path path, Path indexPath, long size, long modified) throws IOException {
+        Path temp = null;
+        FileChannel out = null;
+        try {
+            temp = Files.createTempFile(indexPath.getParent(), indexPath.getFileName() + ".", AtomicFiles.TEMP_SUFFIX);
+            out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        } catch (IOException | UnsupportedOperationException notWritable) {
+            AtomicFiles.discard(temp);
+            temp = null;
+        }
+
+        final Sink sink = new Sink(out);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long lineCount = scan(in, size, sink);
+            sink.add(size);
+            if (out == null) return new LineIndex(null, sink.toArray(), lineCount);
+
+            sink.flush();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putLong(size).putLong(modified).putLong(lineCount).flip();
+            while (header.hasRemaining()) out.write(header, header.position());
+            out.close();
+            AtomicFiles.commit(temp, indexPath.toFile());
+            return new LineIndex(FileChannel.open(indexPath, StandardOpenOption.READ), null, lineCount);
+        } catch (IOException e) {
+            closeQuietly(out);
+            AtomicFiles.discard(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Scans the first {@code size} bytes of a file, passing the start offset of every line to the sink.
+     *
+     * @return The number of lines
+     */
+    private static long scan(FileChannel in, long size, Sink sink) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long position = 0;
+        long count = 0;
+        boolean lineOpen = false;
+        boolean afterCr = false;
+
+        while (position < size) {
+            buffer.clear();
+            if (size - position < buffer.capacity()) buffer.limit((int) (size - position));
+            if (in.read(buffer, position) < 0) break;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                final byte b = buffer.get();
+                if (afterCr) {
+                    afterCr = false;
+                    if (b == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+                if (!lineOpen) {
+                    sink.add(position);
+                    count++;
+                    lineOpen = true;
+                }
+                if (b == '\n') {
+                    lineOpen = false;
+                } else if (b == '\r') {
+                    lineOpen = false;
+                    afterCr = true;
+                }
+                position++;
+            }
+        }
+        return count;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Collects the offsets of the index, either in memory or straight into the index file.
+     */
+    private static final class Sink {
+        private final FileChannel out;
+        private final ByteBuffer buffer;
+        private long[] offsets;
+        private int size;
+        private long position = HEADER_SIZE;
+
+        Sink(FileChannel out) {
+            this.out = out;
+            this.buffer = out != null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : null;
+            this.offsets = out != null ? null : new long[1024];
+        }
+
+        void add(long offset) throws IOException {
+            if (out == null) {
+                if (size == offsets.length) {
+                    if (size == Integer.MAX_VALUE - 8) throw new IOException("Too many lines to index in memory");
+                    offsets = Arrays.copyOf(offsets, (int) Math.min(Integer.MAX_VALUE - 8, size * 2L));
+                }
+                offsets[size++] = offset;
+                return;
+            }
+            if (!buffer.hasRemaining()) flush();
+            buffer.putLong(offset);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) position += out.write(buffer, position);
+            buffer.clear();
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(offsets, size);
+        }
+    }
+}
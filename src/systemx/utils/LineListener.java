@@ -0,0 +1,26 @@
+package systemx.utils;
+
+import java.util.List;
+
+
+/**
+ * A callback receiving the lines appended to a followed file.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#follow(java.io.File, LineListener)
+ */
+@FunctionalInterface
+public interface LineListener {
+
+    /**
+     * Receives lines appended to the file, in order.
+     * @param lines The complete lines read, without their line terminators
+     */
+    void onLines(List<String> lines);
+
+    /**
+     * Tells that the file has been truncated or replaced by a new file, which is followed from its start.
+     */
+    default void onReset() {}
+}
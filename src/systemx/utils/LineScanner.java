@@ -0,0 +1,237 @@
+package systemx.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Reads the lines of a file without allocating anything per line.
+ * <p>
+ * For UTF-8, US-ASCII and ISO-8859-1, whose line terminators are single bytes that never occur inside a
+ * character, the line terminators are searched in the raw bytes of the file, read in a reused buffer,
+ * eight bytes at a time like {@link LineCounter} does. A line made of ASCII bytes only, or any line in
+ * ISO-8859-1, is then passed as a view over the bytes of the buffer, without being decoded at all. Any
+ * other line is decoded in a reused character buffer. Lines can also be asked as new strings, decoded
+ * straight from the bytes of the buffer. A compressed file is read the same way, from its decompressed
+ * content. Other charsets are read through a {@link BufferedReader},
+ * each line being a new string.
+ * <p>
+ * Lines are delimited the same way as {@link BufferedReader#readLine()} does: by {@code '\n'}, {@code '\r'}
+ * or {@code "\r\n"}, a line terminator at the end of the file not starting an extra line. Malformed input
+ * is replaced by the replacement character, as the readers of the JDK do.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class LineScanner {
+
+    /**
+     * The initial size of the buffer the file is read in, grown to hold the longest line.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Charset charset;
+    private final boolean latin1;
+    private final CharsetDecoder decoder;
+    private final ByteView view = new ByteView();
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    /**
+     * The bits of the bytes of the current line read so far, telling whether a byte isn't ASCII.
+     */
+    private long high;
+
+    /**
+     * Creates a scanner decoding the lines with a charset.
+     * @param charset The charset of the files
+     */
+    LineScanner(Charset charset) {
+        this.charset = charset;
+        this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Checks whether the lines of a charset can be delimited in the raw bytes.
+     * @param charset The charset
+     * @return true for UTF-8, US-ASCII and ISO-8859-1
+     */
+    static boolean isByteDelimited(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads a file line by line, passing each line to a visitor.
+     *
+     * @param file The file to read
+     * @param visitor The visitor receiving the lines
+     * @param strings true to pass every line as a new string, false to pass views over the reused buffers
+     * @throws IOException if the file can't be read
+     */
+    void scan(File file, LineSequenceVisitor visitor, boolean strings) throws IOException {
+        if (!isByteDelimited(charset)) {
+            try (BufferedReader reader = FileManager.openReader(file, 0, charset)) {
+                String line;
+                long index = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (!visitor.visit(index++, line)) return;
+                }
+            }
+            return;
+        }
+
+        try (ReadableByteChannel channel = GzipFiles.isGzip(file)
+                ? Channels.newChannel(GzipFiles.openInput(file))
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            int start = 0;
+            int position = 0;
+            int limit = 0;
+            long index = 0;
+            boolean skipLineFeed = false;
+            high = 0;
+            while (true) {
+                final int read = channel.read(wrapped.limit(buffer.length).position(limit));
+                if (read < 0) {
+                    if (start < limit) visitor.visit(index, line(wrapped, start, limit, strings));
+                    return;
+                }
+                limit += read;
+                if (skipLineFeed && position < limit) {
+                    skipLineFeed = false;
+                    if (buffer[position] == '\n') start = ++position;
+                }
+                int terminator;
+                while ((terminator = findTerminator(buffer, position, limit)) >= 0) {
+                    if (!visitor.visit(index++, line(wrapped, start, terminator, strings))) return;
+                    high = 0;
+                    position = terminator + 1;
+                    if (buffer[terminator] == '\r') {
+                        if (position == limit) {
+                            skipLineFeed = true;
+                        } else if (buffer[position] == '\n') {
+                            position++;
+                        }
+                    }
+                    start = position;
+                }
+                position = limit;
+
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    limit -= start;
+                    position -= start;
+                    start = 0;
+                } else if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    wrapped = ByteBuffer.wrap(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches a range of the buffer for a line terminator, eight bytes at a time,
+     * adding the bytes preceding it to the non-ASCII bits of the current line.
+     *
+     * @return The index of the terminator, or -1 if the range holds none
+     */
+    private int findTerminator(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            final long word = (long) LONGS.get(bytes, i);
+            final long terminators = LineCounter.matches(word, LineCounter.LF_WORD) | LineCounter.matches(word, LineCounter.CR_WORD);
+            if (terminators != 0) {
+                final int offset = Long.numberOfTrailingZeros(terminators) >>> 3;
+                high |= word & ((1L << (offset << 3)) - 1);
+                return i + offset;
+            }
+            high |= word;
+        }
+        for (; i < to; i++) {
+            final byte b = bytes[i];
+            if (b == '\n' || b == '\r') return i;
+            high |= b;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a line of the buffer: a new string, a view over its bytes when they are all ASCII,
+     * or the line decoded in the reused character buffer.
+     */
+    private CharSequence line(ByteBuffer buffer, int from, int to, boolean strings) {
+        final byte[] bytes = buffer.array();
+        if (strings) return new String(bytes, from, to - from, charset);
+        if (latin1 || (high & ~LineCounter.LOW_BITS) == 0) return view.set(bytes, from, to - from);
+
+        final int length = to - from;
+        if (chars.capacity() < length) chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+        chars.clear();
+        decoder.reset();
+        final ByteBuffer input = buffer.limit(to).position(from);
+        decoder.decode(input, chars, true);
+        decoder.flush(chars);
+        return chars.flip();
+    }
+
+    /**
+     * A line made of single byte characters, viewed over the bytes holding it.
+     */
+    private static final class ByteView implements CharSequence {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+
+        ByteView set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+            return (char) (bytes[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException();
+            return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
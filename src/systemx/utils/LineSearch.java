@@ -0,0 +1,433 @@
+package systemx.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Searches the lines of files matching a literal or a regular expression.
+ * <p>
+ * A file is split into chunks of whole lines, which are mapped in memory and scanned in parallel on
+ * the common {@link ForkJoinPool}. A literal is searched in the raw bytes with the Boyer-Moore-Horspool
+ * algorithm, which skips most of the bytes that can't be part of a match, and only the matching lines are
+ * decoded. A regular expression is matched against every decoded line. The hits of every chunk are
+ * numbered by adding the lines of the chunks before it, and streamed back in the order of the file.
+ * Only a few chunks are scanned ahead of the consumer of the hits, which bounds the memory used.
+ * A compressed file is scanned one chunk at a time as it is decompressed, the byte offsets of its hits
+ * being offsets in the decompressed content.
+ * <p>
+ * Lines are delimited the same way as {@link java.io.BufferedReader#readLine()} does:
+ * by {@code '\n'}, {@code '\r'} or {@code "\r\n"}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+final class LineSearch {
+
+    /**
+     * The size of the chunks scanned in parallel, before being aligned on line starts.
+     */
+    private static final int CHUNK_SIZE = 8 << 20;
+
+    /**
+     * The size of the buffer used to find the line starts following the chunk boundaries.
+     */
+    private static final int PROBE_SIZE = 8 << 10;
+
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] literal;
+    private final int[] shifts;
+    private final Pattern pattern;
+
+    private LineSearch(byte[] literal, Pattern pattern) {
+        this.literal = literal;
+        this.pattern = pattern;
+        this.shifts = literal == null ? null : shifts(literal);
+    }
+
+    /**
+     * Creates a search of the lines containing a literal.
+     *
+     * @param literal The literal to search
+     * @return The search
+     * @throws IllegalArgumentException if the literal contains a line terminator
+     */
+    static LineSearch literal(String literal) {
+        if (literal.indexOf('\n') >= 0 || literal.indexOf('\r') >= 0) throw new IllegalArgumentException();
+        return new LineSearch(literal.getBytes(Charset.defaultCharset()), null);
+    }
+
+    /**
+     * Creates a search of the lines in which a regular expression is found.
+     *
+     * @param pattern The regular expression to find
+     * @return The search
+     */
+    static LineSearch regex(Pattern pattern) {
+        return new LineSearch(null, pattern);
+    }
+
+    /**
+     * Searches a file, scanning its chunks in parallel.
+     * The returned stream holds the file open and should be closed.
+     *
+     * @param file The file to search
+     * @param maxHits The maximum number of hits
+     * @return The hits, in the order of the file
+     * @throws IOException if the file can't be read
+     */
+    Stream<SearchHit> search(File file, int maxHits) throws IOException {
+        if (GzipFiles.isGzip(file)) {
+            final StreamHitSpliterator hits = new StreamHitSpliterator(GzipFiles.openInput(file), maxHits);
+            return StreamSupport.stream(hits, false).onClose(hits::close);
+        }
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        final long[] bounds;
+        try {
+            bounds = bounds(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        final HitSpliterator hits = new HitSpliterator(channel, bounds, maxHits);
+        return StreamSupport.stream(hits, false).onClose(hits::close);
+    }
+
+    /**
+     * Scans a run of whole lines.
+     *
+     * @param bytes The bytes of the lines, from position 0 to the limit
+     * @param offset The offset of the first byte in the file
+     * @param maxHits The maximum number of hits
+     * @return The hits, numbered from 1 within the run, and the number of line terminators of the run,
+     *         or -1 if the scan stopped at the maximum number of hits
+     */
+    Chunk scan(ByteBuffer bytes, long offset, int maxHits) {
+        return scan(bytes, offset, maxHits, true);
+    }
+
+    /**
+     * Searches the whole content of a file held in a buffer.
+     *
+     * @param bytes The content of the file, from position 0 to the limit
+     * @param maxHits The maximum number of hits
+     * @return The hits, in the order of the file
+     */
+    List<SearchHit> find(ByteBuffer bytes, int maxHits) {
+        return scan(bytes, 0, maxHits, false).hits();
+    }
+
+    /**
+     * Scans a run of whole lines, counting the terminators following the last hit only if asked.
+     */
+    private Chunk scan(ByteBuffer bytes, long offset, int maxHits, boolean countAll) {
+        final int length = bytes.limit();
+        final List<SearchHit> hits = new ArrayList<>();
+        final Matcher matcher = pattern == null ? null : pattern.matcher("");
+        int position = 0;
+        int counted = 0;
+        long lines = 0;
+        while (position < length && hits.size() < maxHits) {
+            final int start;
+            final int end;
+            if (literal != null) {
+                final int match = indexOf(bytes, position, length);
+                if (match < 0) break;
+                start = lineStart(bytes, match, position);
+                end = lineEnd(bytes, match + literal.length, length);
+            } else {
+                start = position;
+                end = lineEnd(bytes, position, length);
+                if (!matcher.reset(decode(bytes, start, end)).find()) {
+                    position = nextLine(bytes, end, length);
+                    continue;
+                }
+            }
+            lines += terminators(bytes, counted, start);
+            counted = start;
+            hits.add(new SearchHit(lines + 1, offset + start, decode(bytes, start, end)));
+            position = nextLine(bytes, end, length);
+        }
+        if (hits.size() >= maxHits || !countAll) return new Chunk(hits, -1);
+        return new Chunk(hits, lines + terminators(bytes, counted, length));
+    }
+
+    /**
+     * The hits of a run of lines and its number of line terminators.
+     */
+    record Chunk(List<SearchHit> hits, long terminators) {}
+
+    private static int[] shifts(byte[] literal) {
+        final int[] shifts = new int[256];
+        Arrays.fill(shifts, literal.length);
+        for (int i = 0; i < literal.length - 1; i++) shifts[literal[i] & 0xFF] = literal.length - 1 - i;
+        return shifts;
+    }
+
+    /**
+     * Finds the literal with the Boyer-Moore-Horspool algorithm.
+     */
+    private int indexOf(ByteBuffer bytes, int from, int to) {
+        final int last = literal.length - 1;
+        if (last < 0) return from;
+        for (int i = from; i + last < to; i += shifts[bytes.get(i + last) & 0xFF]) {
+            int j = last;
+            while (bytes.get(i + j) == literal[j]) {
+                if (j-- == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isTerminator(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private static int lineStart(ByteBuffer bytes, int position, int floor) {
+        while (position > floor && !isTerminator(bytes.get(position - 1))) position--;
+        return position;
+    }
+
+    private static int lineEnd(ByteBuffer bytes, int position, int length) {
+        while (position < length && !isTerminator(bytes.get(position))) position++;
+        return position;
+    }
+
+    private static int nextLine(ByteBuffer bytes, int end, int length) {
+        if (end >= length) return length;
+        return bytes.get(end) == '\r' && end + 1 < length && bytes.get(end + 1) == '\n' ? end + 2 : end + 1;
+    }
+
+    /**
+     * Counts the line terminators between two line starts.
+     */
+    private static long terminators(ByteBuffer bytes, int from, int to) {
+        return from == to ? 0 : LineCounter.terminators(bytes.slice(from, to - from));
+    }
+
+    private String decode(ByteBuffer bytes, int start, int end) {
+        final byte[] line = new byte[end - start];
+        bytes.get(start, line);
+        return new String(line, charset);
+    }
+
+    /**
+     * Splits a file into chunks starting at line starts.
+     * @return The offsets of the chunks, followed by the size of the file
+     */
+    private static long[] bounds(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        final ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        for (long nominal = CHUNK_SIZE; nominal < size; nominal += CHUNK_SIZE) {
+            if (nominal <= bounds.get(bounds.size() - 1)) continue;
+            final long start = lineStartFrom(channel, probe, nominal, size);
+            if (start < size) bounds.add(start);
+        }
+        bounds.add(size);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Finds the first line starting at or after a position.
+     */
+    private static long lineStartFrom(FileChannel channel, ByteBuffer probe, long position, long size) throws IOException {
+        long offset = position - 1;
+        while (offset < size) {
+            probe.clear();
+            final int read = channel.read(probe, offset);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                final byte b = probe.get(i);
+                if (b == '\n') return offset + i + 1;
+                if (b == '\r') {
+                    if (i + 1 < read) return offset + i + (probe.get(i + 1) == '\n' ? 2 : 1);
+                    final ByteBuffer next = ByteBuffer.allocate(1);
+                    final boolean lineFeed = channel.read(next, offset + i + 1) == 1 && next.get(0) == '\n';
+                    return offset + i + (lineFeed ? 2 : 1);
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    /**
+     * Finds the start of the last whole line of a buffer, a {@code '\r'} ending the buffer possibly
+     * being followed by a {@code '\n'} not read yet.
+     * @return The index following the last line terminator, or 0 if there is none
+     */
+    static int lastLineStart(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n' || (bytes[i] == '\r' && i + 1 < length)) return i + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Streams the hits of the chunks in order, scanning a window of chunks ahead in parallel.
+     */
+    private final class HitSpliterator extends Spliterators.AbstractSpliterator<SearchHit> {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int maxHits;
+        private final int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        private final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        private Iterator<SearchHit> current = Collections.emptyIterator();
+        private int submitted;
+        private long lines;
+        private long emitted;
+
+        HitSpliterator(FileChannel channel, long[] bounds, int maxHits) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.channel = channel;
+            this.bounds = bounds;
+            this.maxHits = maxHits;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SearchHit> action) {
+            while (emitted < maxHits) {
+                if (current.hasNext()) {
+                    final SearchHit hit = current.next();
+                    action.accept(new SearchHit(lines + hit.lineNumber(), hit.byteOffset(), hit.line()));
+                    emitted++;
+                    return true;
+                }
+                if (!pending.isEmpty()) lines += pending.peekFirst().join().terminators();
+                if (!next()) break;
+            }
+            close();
+            return false;
+        }
+
+        /**
+         * Moves to the hits of the next chunk, submitting the chunks of the window.
+         */
+        private boolean next() {
+            if (!pending.isEmpty()) pending.removeFirst();
+            while (pending.size() < window && submitted < bounds.length - 1) {
+                final long start = bounds[submitted];
+                final long end = bounds[++submitted];
+                pending.addLast(ForkJoinPool.commonPool().submit(() -> {
+                    try {
+                        return scan(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start, maxHits);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            if (pending.isEmpty()) return false;
+            current = pending.peekFirst().join().hits().iterator();
+            return true;
+        }
+
+        void close() {
+            for (ForkJoinTask<Chunk> task : pending) task.cancel(false);
+            pending.clear();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // only read
+            }
+        }
+    }
+
+    /**
+     * Streams the hits of a stream of bytes, scanning the chunks of whole lines read from it one after the other.
+     */
+    private final class StreamHitSpliterator extends Spliterators.AbstractSpliterator<SearchHit> {
+        private final InputStream in;
+        private final int maxHits;
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int length;
+        private boolean ended;
+        private long offset;
+        private long base;
+        private long lines;
+        private long emitted;
+        private Iterator<SearchHit> current = Collections.emptyIterator();
+
+        StreamHitSpliterator(InputStream in, int maxHits) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.in = in;
+            this.maxHits = maxHits;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SearchHit> action) {
+            while (emitted < maxHits) {
+                if (current.hasNext()) {
+                    final SearchHit hit = current.next();
+                    action.accept(new SearchHit(base + hit.lineNumber(), hit.byteOffset(), hit.line()));
+                    emitted++;
+                    return true;
+                }
+                if (!next()) break;
+            }
+            close();
+            return false;
+        }
+
+        /**
+         * Reads the next chunk of whole lines and moves to its hits.
+         */
+        private boolean next() {
+            try {
+                while (true) {
+                    while (!ended && length < buffer.length) {
+                        final int read = in.read(buffer, length, buffer.length - length);
+                        if (read < 0) ended = true;
+                        else length += read;
+                    }
+                    if (length == 0) return false;
+                    final int cut = ended ? length : lastLineStart(buffer, length);
+                    if (cut == 0) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        continue;
+                    }
+                    final Chunk chunk = scan(ByteBuffer.wrap(buffer, 0, cut), offset, (int) (maxHits - emitted));
+                    base = lines;
+                    lines += chunk.terminators();
+                    current = chunk.hits().iterator();
+                    System.arraycopy(buffer, cut, buffer, 0, length - cut);
+                    length -= cut;
+                    offset += cut;
+                    return true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // only read
+            }
+        }
+    }
+}
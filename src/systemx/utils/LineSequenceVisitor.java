@@ -0,0 +1,24 @@
+package systemx.utils;
+
+
+/**
+ * A callback receiving the lines of a file one at a time, as views over a reused buffer.
+ * <p>
+ * The line passed to the visitor is only valid during the call: its content changes once the visitor
+ * returns. A line that must be kept has to be copied with {@link CharSequence#toString()}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#scanLines(java.io.File, java.nio.charset.Charset, LineSequenceVisitor)
+ */
+@FunctionalInterface
+public interface LineSequenceVisitor {
+
+    /**
+     * Visits a line of a file.
+     * @param index The index of the line, starting from 0
+     * @param line The content of the line, without its line terminator, only valid during the call
+     * @return true to keep reading, false to stop reading the file
+     */
+    boolean visit(long index, CharSequence line);
+}
@@ -0,0 +1,21 @@
+package systemx.utils;
+
+
+/**
+ * A callback receiving the lines of a file one at a time.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#forEachLine(java.io.File, LineVisitor)
+ */
+@FunctionalInterface
+public interface LineVisitor {
+
+    /**
+     * Visits a line of a file.
+     * @param index The index of the line, starting from 0
+     * @param line The content of the line, without its line terminator
+     * @return true to keep reading, false to stop reading the file
+     */
+    boolean visit(int index, String line);
+}
@@ -0,0 +1,63 @@
+package systemx.utils;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A cache of the names of the entries of directories, bounded by the memory it holds.
+ * <p>
+ * The entries are validated by the last modified time and the key of their directory, and the cached
+ * directories are watched so the listings of a directory that didn't change don't touch the file system
+ * at all (see {@link WatchedCache}).
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see PathResolver#enableListingCache(long, boolean)
+ */
+final class ListingCache extends WatchedCache<String[]> {
+
+    /**
+     * The estimated memory used by a name besides its characters: the string, its array and the reference.
+     */
+    private static final long NAME_OVERHEAD = 56;
+
+    /**
+     * Creates an empty cache.
+     * @param maxBytes The maximum estimated size of the cached names, in bytes
+     * @param watch true to watch the cached directories, false to always check the directories
+     */
+    ListingCache(long maxBytes, boolean watch) {
+        super(maxBytes, watch);
+    }
+
+    /**
+     * Lists the entries of a directory, only reading it if it isn't cached or it changed.
+     *
+     * @param directory The directory to list
+     * @return The entries of the directory, as children of the given directory
+     * @throws DoNotExistsException if the directory can't be listed
+     */
+    File[] list(File directory) throws DoNotExistsException {
+        final String[] names = get(directory);
+        final File[] files = new File[names.length];
+        for (int i = 0; i < names.length; i++) files[i] = new File(directory, names[i]);
+        return files;
+    }
+
+    @Override
+    Loaded<String[]> load(File directory) throws DoNotExistsException {
+        final String[] names = directory.list();
+        if (names == null) throw new DoNotExistsException(directory);
+        long bytes = 0;
+        for (String name : names) bytes += NAME_OVERHEAD + name.length();
+        return new Loaded<>(names, bytes);
+    }
+
+    @Override
+    Path watchedDirectory(Path directory) {
+        return directory;
+    }
+}
@@ -0,0 +1,212 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A reader of the lines of a file mapped in memory.
+ * <p>
+ * Line boundaries are found by scanning the raw bytes of the mapping, and only the lines that are
+ * actually requested are decoded, with the default charset. This is meant for large files that
+ * don't change while they are read: the mapping reflects the file as it was when it was opened.
+ * <p>
+ * Lines are delimited the same way as {@link java.io.BufferedReader#readLine()} does:
+ * by {@code '\n'}, {@code '\r'} or {@code "\r\n"}.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+public final class MappedLineReader implements Closeable {
+
+    /**
+     * The size of the regions the file is mapped in, as a power of two.
+     */
+    private static final int REGION_SHIFT = 30;
+
+    /**
+     * The mask giving the position of a byte inside its region.
+     */
+    private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long length;
+    private final Charset charset;
+    private byte[] scratch = new byte[256];
+
+    private MappedLineReader(FileChannel channel, Charset charset) throws IOException {
+        this.channel = channel;
+        this.charset = charset;
+        this.length = channel.size();
+        final int count = (int) ((length + REGION_MASK) >>> REGION_SHIFT);
+        this.regions = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            final long position = (long) i << REGION_SHIFT;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_MASK + 1, length - position));
+        }
+    }
+
+    /**
+     * Maps a file in memory.
+     *
+     * @param file The file to map
+     * @return A reader of the mapped file
+     * @throws IOException if the file can't be mapped
+     */
+    public static MappedLineReader open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new MappedLineReader(channel, Charset.defaultCharset());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the length of the mapped file.
+     * @return The length of the file, in bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Counts the lines of the mapped file, in parallel for large files.
+     * @return The number of lines
+     */
+    public long countLines() {
+        return LineCounter.count(regions, length);
+    }
+
+    /**
+     * Gets the byte offset at which a line starts.
+     *
+     * @param line The index of the line, starting from 0
+     * @return The byte offset of the line, or the length of the file if it has less lines
+     */
+    public long startOf(long line) {
+        long position = 0;
+        for (long i = 0; i < line && position < length; i++) {
+            position = nextLine(terminatorFrom(position));
+        }
+        return position;
+    }
+
+    /**
+     * Reads the lines starting at a line.
+     *
+     * @param from The index of the first line to read, starting from 0
+     * @param count The maximum number of lines to read
+     * @return The lines read, without their line terminators
+     */
+    public List<String> getLines(long from, long count) {
+        final List<String> lines = new ArrayList<>();
+        long position = startOf(from);
+        for (long i = 0; i < count && position < length; i++) {
+            final long end = terminatorFrom(position);
+            lines.add(decode(position, end));
+            position = nextLine(end);
+        }
+        return lines;
+    }
+
+    /**
+     * Reads all the lines starting at a line.
+     *
+     * @param from The index of the first line to read, starting from 0
+     * @return The lines read, without their line terminators
+     */
+    public List<String> getLinesFrom(long from) {
+        return getLines(from, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads the line starting at a byte offset.
+     *
+     * @param offset The byte offset of the line
+     * @return The line, without its line terminator
+     */
+    String lineAt(long offset) {
+        return decode(offset, terminatorFrom(offset));
+    }
+
+    /**
+     * Checks if the mapped file is empty or ends with a line terminator.
+     *
+     * @return true if the last line of the file is terminated, false otherwise
+     */
+    boolean endsWithTerminator() {
+        if (length == 0) return true;
+        final byte last = byteAt(length - 1);
+        return last == '\n' || last == '\r';
+    }
+
+    /**
+     * Finds the first line terminator at or after a position.
+     *
+     * @param position The position to start searching from
+     * @return The position of the terminator, or the length of the file if there is none
+     */
+    private long terminatorFrom(long position) {
+        while (position < length) {
+            final MappedByteBuffer region = regions[(int) (position >>> REGION_SHIFT)];
+            final int limit = region.limit();
+            for (int i = (int) (position & REGION_MASK); i < limit; i++) {
+                final byte b = region.get(i);
+                if (b == '\n' || b == '\r') return (position & ~REGION_MASK) + i;
+            }
+            position = (position & ~REGION_MASK) + limit;
+        }
+        return length;
+    }
+
+    /**
+     * Skips the line terminator at a position.
+     *
+     * @param terminator The position of the terminator
+     * @return The position of the next line
+     */
+    private long nextLine(long terminator) {
+        if (terminator >= length) return length;
+        if (byteAt(terminator) == '\r' && terminator + 1 < length && byteAt(terminator + 1) == '\n') {
+            return terminator + 2;
+        }
+        return terminator + 1;
+    }
+
+    private byte byteAt(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)].get((int) (position & REGION_MASK));
+    }
+
+    /**
+     * Decodes the bytes between two positions.
+     */
+    private String decode(long start, long end) {
+        final int size = Math.toIntExact(end - start);
+        if (scratch.length < size) scratch = new byte[Math.max(size, scratch.length * 2)];
+        int copied = 0;
+        while (copied < size) {
+            final long position = start + copied;
+            final MappedByteBuffer region = regions[(int) (position >>> REGION_SHIFT)];
+            final int offset = (int) (position & REGION_MASK);
+            final int chunk = Math.min(size - copied, region.limit() - offset);
+            region.get(offset, scratch, copied, chunk);
+            copied += chunk;
+        }
+        return new String(scratch, 0, size, charset);
+    }
+}
@@ -6,6 +6,10 @@ import java.io.File;
 import systemx.exceptions.DoNotExistsException;
 import systemx.exceptions.FailedToCreateException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
 
  /**
  * A utility class for paths related operations.
@@ -20,6 +24,59 @@ public final class PathResolver {
         // Private constructor to prevent instantiation
     }
 
+    /**
+     * The cache of the directory listings, null while caching is disabled.
+     */
+    private static volatile ListingCache listings;
+
+    /**
+     * The suffixes of the hidden files kept next to the files this library works on, named after them:
+     * line indexes and journals.
+     */
+    private static final String[] SIDECAR_SUFFIXES = {LineIndex.SUFFIX, JournaledFile.SUFFIX};
+
+    /**
+     * The suffixes of the hidden temporary files this library creates, named after a file and a random number:
+     * temporary files of atomic replacements and runs of external sorts.
+     */
+    private static final String[] TEMPORARY_SUFFIXES = {AtomicFiles.TEMP_SUFFIX, ExternalSort.RUN_SUFFIX};
+
+    /**
+     * Enables caching the listings of {@link #getFilesInDirectory(File)}, checking the cached directories
+     * on every listing.
+     *
+     * @param maxBytes The maximum estimated size of the cached listings, in bytes.
+     * @throws IllegalArgumentException If the size is not positive.
+     * @see #enableListingCache(long, boolean)
+     */
+    public static void enableListingCache(long maxBytes) {
+        enableListingCache(maxBytes, false);
+    }
+
+    /**
+     * Enables caching the listings of {@link #getFilesInDirectory(File)}, replacing any previous cache.
+     * <p>
+     * A cached directory is listed again as soon as its last modified time changes. When watched, the cached
+     * directories notify their changes and the listings don't check the directories anymore, unless
+     * notifications have been lost. The entries created or deleted by other processes are then seen once
+     * notified, shortly after they happen.
+     *
+     * @param maxBytes The maximum estimated size of the cached listings, in bytes.
+     * @param watch true to watch the cached directories, false to check them on every listing.
+     * @throws IllegalArgumentException If the size is not positive.
+     */
+    public static void enableListingCache(long maxBytes, boolean watch) {
+        if (maxBytes <= 0) throw new IllegalArgumentException();
+        replaceListingCache(new ListingCache(maxBytes, watch));
+    }
+
+    /**
+     * Disables caching the directory listings, dropping the cached listings.
+     */
+    public static void disableListingCache() {
+        replaceListingCache(null);
+    }
+
     /**
      * Checks if a file exists in the given directory.
      * @param fileName      The name of the file to check for.
@@ -177,7 +234,7 @@ public final class PathResolver {
     public static File createDirectory(String directoryPath) {
         if (checkNull(directoryPath)) throw new NullPointerException();
         File directory = new File(directoryPath);
-        directory.mkdir();
+        if (directory.mkdir()) changed(directory.getAbsoluteFile().getParentFile());
         return directory;
     }
 
@@ -204,6 +261,7 @@ public final class PathResolver {
             } catch (IOException e) {
                 throw new FailedToCreateException(file);
             }
+            changed(directory);
         }
         return file;
     }
@@ -228,11 +286,14 @@ public final class PathResolver {
             }
         }
         directory.delete();
+        changed(directory);
+        changed(directory.getAbsoluteFile().getParentFile());
     }
 
 
     /**
      * Gets the files in a directory.
+     * The hidden files this library keeps next to the files it works on are left out (see {@link #isSidecar(File)}).
      *
      * @param directory The directory to get the files from.
      * @return An array of files in the directory.
@@ -241,8 +302,50 @@ public final class PathResolver {
      */
     public static File[] getFilesInDirectory(File directory) throws DoNotExistsException{
         if (checkNull(directory)) throw new NullPointerException();
+        final ListingCache listingCache = listings;
+        if (listingCache != null) return withoutSidecars(listingCache.list(directory));
         if (!directory.exists() || !directory.isDirectory()) throw new DoNotExistsException(directory);
-        return directory.listFiles();
+        return withoutSidecars(directory.listFiles());
+    }
+
+    /**
+     * Checks whether a file is one of the hidden files this library keeps next to the files it works on:
+     * a line index or a journal of an existing file ({@code .<name>.lidx}, {@code .<name>.journal}),
+     * or a temporary file of an atomic replacement or a run of an external sort, named after a file
+     * and a random number ({@code .<name>.<digits>.tmp}, {@code .<name>.<digits>.run}).
+     *
+     * @param file The file to check.
+     * @return true if the file is named like a sidecar file of this library.
+     */
+    static boolean isSidecar(File file) {
+        return isSidecar(file.getName(), name -> new File(file.getParentFile(), name).exists());
+    }
+
+    private static boolean isSidecar(String name, Predicate<String> exists) {
+        if (!name.startsWith(".")) return false;
+        for (String suffix : SIDECAR_SUFFIXES) {
+            if (name.endsWith(suffix) && name.length() > suffix.length() + 1) {
+                return exists.test(name.substring(1, name.length() - suffix.length()));
+            }
+        }
+        for (String suffix : TEMPORARY_SUFFIXES) {
+            if (!name.endsWith(suffix)) continue;
+            final String rest = name.substring(0, name.length() - suffix.length());
+            final int dot = rest.lastIndexOf('.');
+            if (dot <= 1 || dot == rest.length() - 1) return false;
+            for (int i = dot + 1; i < rest.length(); i++) {
+                if (rest.charAt(i) < '0' || rest.charAt(i) > '9') return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static File[] withoutSidecars(File[] files) {
+        if (files == null) return null;
+        final Set<String> names = new HashSet<>();
+        for (File file : files) names.add(file.getName());
+        return Arrays.stream(files).filter(file -> !isSidecar(file.getName(), names::contains)).toArray(File[]::new);
     }
 
     /**
@@ -296,5 +399,24 @@ public final class PathResolver {
         }
         return false;
     }
-}
 
+    /**
+     * Discards the cached listing of a directory, after an entry has been created or deleted in it.
+     * @param directory The directory that changed, ignored if null
+     */
+    static void changed(File directory) {
+        final ListingCache listingCache = listings;
+        if (listingCache != null && directory != null) listingCache.invalidate(directory);
+    }
+
+    private static synchronized void replaceListingCache(ListingCache cache) {
+        final ListingCache previous = listings;
+        listings = cache;
+        if (previous == null) return;
+        try {
+            previous.close();
+        } catch (IOException ignored) {
+            // only stops watching
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * An appender shared by many producer threads and drained by a single writer thread.
+ * <p>
+ * Producers enqueue their lines in a bounded, lock-free ring buffer. The writer thread takes them
+ * out in order and writes as many as it can at once with one gathering write
+ * ({@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}), so the lines of different
+ * producers are never interleaved and the cost of a write is shared by every line it holds.
+ * <p>
+ * When the ring buffer is full, {@link #tryAppend(String)} refuses the line while {@link #append(String)}
+ * waits for room, which pushes back on the producers. The depth of the queue and the work done
+ * are exposed for monitoring.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#openQueuedAppender(File, int)
+ */
+public final class QueuedAppender implements Closeable {
+
+    /**
+     * The maximum number of lines written by a single gathering write.
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * How long the writer thread sleeps when the queue is empty, at most.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final File file;
+    private final FileChannel channel;
+    private final Thread writer;
+    private final int mask;
+    private final AtomicReferenceArray<byte[]> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger producers = new AtomicInteger();
+    private volatile long head;
+    private volatile boolean idle;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] separator = System.lineSeparator().getBytes(charset);
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private volatile long written;
+    private volatile long writes;
+
+    /**
+     * Opens an appender and starts its writer thread.
+     *
+     * @param file The file to append to, created if it does not exist
+     * @param capacity The number of lines the queue can hold, rounded up to a power of two
+     * @throws DoNotExistsException if the file can't be opened
+     * @throws IllegalArgumentException if the capacity is not positive or the file is compressed
+     */
+    public QueuedAppender(File file, int capacity) throws DoNotExistsException {
+        if (capacity <= 0 || capacity > 1 << 30) throw new IllegalArgumentException();
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.file = file;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+
+        if (GzipFiles.isGzip(file)) throw new IllegalArgumentException("Compressed files can't be appended to: " + file);
+        if (FileManager.lineCheck(file)) throw new DoNotExistsException(file);
+        try {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+        this.writer = new Thread(this::drain, "systemx-appender-" + file.getName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Appends a line if there is room left in the queue.
+     *
+     * @param line The line to append
+     * @return true if the line has been queued, false if the queue is full
+     * @throws IOException if the appender is closed or the writer thread failed
+     */
+    public boolean tryAppend(String line) throws IOException {
+        final byte[] record = encode(line);
+        producers.incrementAndGet();
+        try {
+            checkOpen();
+            if (offer(record)) return true;
+        } finally {
+            producers.decrementAndGet();
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Appends a line, waiting for room in the queue if it is full.
+     *
+     * @param line The line to append
+     * @throws IOException if the appender is closed or the writer thread failed
+     */
+    public void append(String line) throws IOException {
+        final byte[] record = encode(line);
+        long backoff = 1_000;
+        while (true) {
+            producers.incrementAndGet();
+            try {
+                checkOpen();
+                if (offer(record)) return;
+            } finally {
+                producers.decrementAndGet();
+            }
+            LockSupport.parkNanos(backoff);
+            backoff = Math.min(backoff * 2, IDLE_NANOS);
+        }
+    }
+
+    /**
+     * Gets the number of lines waiting in the queue.
+     * @return The depth of the queue
+     */
+    public long queueDepth() {
+        return tail.get() - head;
+    }
+
+    /**
+     * Gets the highest number of lines seen waiting in the queue.
+     * @return The maximum depth of the queue
+     */
+    public long maxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Gets the number of lines refused by {@link #tryAppend(String)} because the queue was full.
+     * @return The number of refused lines
+     */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Gets the number of lines written to the file.
+     * @return The number of written lines
+     */
+    public long writtenCount() {
+        return written;
+    }
+
+    /**
+     * Gets the number of gathering writes done so far.
+     * @return The number of writes
+     */
+    public long writeCount() {
+        return writes;
+    }
+
+    /**
+     * Stops accepting lines, waits for the queued lines to be written and closes the file.
+     *
+     * @throws IOException if the queued lines can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + file, e);
+        } finally {
+            channel.close();
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("Appender closed: " + file);
+        if (failure != null) throw failure;
+    }
+
+    private byte[] encode(String line) {
+        final byte[] bytes = line.getBytes(charset);
+        final byte[] record = new byte[bytes.length + separator.length];
+        System.arraycopy(bytes, 0, record, 0, bytes.length);
+        System.arraycopy(separator, 0, record, bytes.length, separator.length);
+        return record;
+    }
+
+    /**
+     * Claims the next slot of the ring buffer and publishes a record in it.
+     * A slot is free for the position {@code p} when its sequence is {@code p},
+     * and holds a record for the writer when its sequence is {@code p + 1}.
+     */
+    private boolean offer(byte[] record) {
+        while (true) {
+            final long position = tail.get();
+            final int slot = (int) position & mask;
+            final long difference = sequences.get(slot) - position;
+            if (difference < 0) return false;
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                slots.set(slot, record);
+                sequences.set(slot, position + 1);
+                updateMaxDepth(position + 1 - head);
+                if (idle) LockSupport.unpark(writer);
+                return true;
+            }
+        }
+    }
+
+    private void updateMaxDepth(long depth) {
+        long max;
+        while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The loop of the writer thread, writing the queued records in batches until the appender is closed
+     * and no producer is still enqueuing a record.
+     */
+    private void drain() {
+        final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+        while (true) {
+            int size = 0;
+            long position = head;
+            while (size < MAX_BATCH) {
+                final int slot = (int) position & mask;
+                if (sequences.get(slot) != position + 1) break;
+                batch[size++] = ByteBuffer.wrap(slots.get(slot));
+                slots.set(slot, null);
+                sequences.set(slot, position + mask + 1);
+                position++;
+            }
+            if (size == 0) {
+                if (closed && producers.get() == 0 && tail.get() == head) return;
+                idle = true;
+                if (tail.get() == head && !closed) LockSupport.parkNanos(this, IDLE_NANOS);
+                idle = false;
+                continue;
+            }
+            head = position;
+            if (failure == null) write(batch, size);
+            Arrays.fill(batch, 0, size, null);
+        }
+    }
+
+    private void write(ByteBuffer[] batch, int size) {
+        try {
+            int first = 0;
+            while (first < size) {
+                channel.write(batch, first, size - first);
+                while (first < size && !batch[first].hasRemaining()) first++;
+            }
+            written += size;
+            writes++;
+            FileManager.changed(file);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Reads the lines of a file backwards, from the last line to the first one.
+ * <p>
+ * The file is read from its end in fixed-size blocks, so reading the last lines of a file only costs
+ * the size of those lines, whatever the size of the file. The line terminators are searched in the raw
+ * bytes and a line is only decoded once all its bytes are known, so a multi-byte character spanning two
+ * blocks is never split: the bytes of a line terminator never occur inside a multi-byte UTF-8 character.
+ * <p>
+ * Lines are delimited the same way as {@link java.io.BufferedReader#readLine()} does:
+ * by {@code '\n'}, {@code '\r'} or {@code "\r\n"}, a line terminator at the end of the file
+ * not starting an extra line.
+ *
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#tail(File, int)
+ */
+public final class ReverseLineReader implements Closeable {
+
+    /**
+     * The size of the blocks read from the end of the file.
+     */
+    private static final int BLOCK_SIZE = 8 << 10;
+
+    private final FileChannel channel;
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private long blockStart;
+    private int blockLength;
+    private long end;
+
+    private ReverseLineReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        final long size = channel.size();
+        this.blockStart = size;
+        this.end = size == 0 ? -1 : size;
+        if (size > 0) {
+            if (byteAt(size - 1) == '\n') end = size > 1 && byteAt(size - 2) == '\r' ? size - 2 : size - 1;
+            else if (byteAt(size - 1) == '\r') end = size - 1;
+        }
+    }
+
+    /**
+     * Opens a file to read its lines backwards.
+     *
+     * @param file The file to read
+     * @return The reader, positioned after the last line
+     * @throws IOException if the file can't be opened
+     */
+    public static ReverseLineReader open(File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ReverseLineReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the line preceding the last line read.
+     *
+     * @return The line, without its line terminator, or null once the first line has been read
+     * @throws IOException if the file can't be read
+     */
+    public String readLine() throws IOException {
+        if (end < 0) return null;
+        long terminator = end - 1;
+        while (terminator >= 0) {
+            if (terminator < blockStart || terminator >= blockStart + blockLength) load(terminator);
+            final int local = indexOfTerminator((int) (terminator - blockStart));
+            if (local >= 0) {
+                terminator = blockStart + local;
+                break;
+            }
+            terminator = blockStart - 1;
+        }
+
+        final long start = terminator + 1;
+        final String line = decode(start, end);
+        if (terminator < 0) end = -1;
+        else if (byteAt(terminator) == '\n' && terminator > 0 && byteAt(terminator - 1) == '\r') end = terminator - 1;
+        else end = terminator;
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Searches the block backwards for a line terminator, from an index of the block.
+     */
+    private int indexOfTerminator(int from) {
+        for (int i = from; i >= 0; i--) {
+            if (block[i] == '\n' || block[i] == '\r') return i;
+        }
+        return -1;
+    }
+
+    private byte byteAt(long position) throws IOException {
+        if (position < blockStart || position >= blockStart + blockLength) load(position);
+        return block[(int) (position - blockStart)];
+    }
+
+    /**
+     * Loads the block ending with a position of the file.
+     */
+    private void load(long last) throws IOException {
+        blockStart = Math.max(0, last + 1 - BLOCK_SIZE);
+        blockLength = (int) (last + 1 - blockStart);
+        readFully(ByteBuffer.wrap(block, 0, blockLength), blockStart);
+    }
+
+    private String decode(long start, long end) throws IOException {
+        final int length = Math.toIntExact(end - start);
+        if (start >= blockStart && end <= blockStart + blockLength) {
+            return new String(block, (int) (start - blockStart), length, charset);
+        }
+        final byte[] bytes = new byte[length];
+        readFully(ByteBuffer.wrap(bytes), start);
+        return new String(bytes, charset);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package systemx.utils;
+
+
+/**
+ * A line of a file matching a search.
+ *
+ * @param lineNumber The number of the line, starting from 1
+ * @param byteOffset The offset of the first byte of the line in the file
+ * @param line The content of the line, without its line terminator
+ * @author Younes Rabeh
+ * @version 1.0
+ * @see FileManager#search(java.io.File, String)
+ */
+public record SearchHit(long lineNumber, long byteOffset, String line) {}
@@ -0,0 +1,235 @@
+package systemx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import systemx.exceptions.DoNotExistsException;
+
+
+/**
+ * A cache of values read from the file system, bounded by the memory they hold.
+ * <p>
+ * Entries are keyed by the canonical path of their file, so every path leading to the same file shares
+ * one entry, and remember the size, the last modified time and the key of the file they were read from.
+ * The least recently used entries are evicted once the estimated size of the values exceeds the limit.
+ * <p>
+ * The directories of the cached files are watched by a {@link DirectoryWatcher}, and the entries of the
+ * files changing are dropped as soon as the change is notified. An entry of a watched directory is then
+ * returned without checking its file at all. When a directory can't be watched, or when some of its events
+ * have been lost, its entries are checked against the attributes of their files on every lookup instead,
+ * until they are found up to date again. Paths are resolved when they are first looked up, so a link
+ * changing target afterwards isn't noticed.
+ *
+ * @param <V> The type of the cached values
+ * @author Younes Rabeh
+ * @version 1.0
+ */
+abstract class WatchedCache<V> implements Closeable, DirectoryWatcher.Listener {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> aliases = new HashMap<>();
+    private final DirectoryWatcher watcher;
+    private long bytes;
+    private long invalidations;
+
+    /**
+     * Creates an empty cache.
+     * @param maxBytes The maximum estimated size of the cached values, in bytes
+     * @param watch true to watch the directories of the cached files, false to always check the files
+     */
+    WatchedCache(long maxBytes, boolean watch) {
+        this.maxBytes = maxBytes;
+        DirectoryWatcher started = null;
+        if (watch) {
+            try {
+                started = DirectoryWatcher.start(this);
+            } catch (IOException | UnsupportedOperationException ignored) {
+                // the files are checked on every lookup
+            }
+        }
+        this.watcher = started;
+    }
+
+    /**
+     * Reads the value of a file.
+     * @param file The file to read
+     * @return The value, with its estimated size
+     * @throws DoNotExistsException if the file can't be read
+     */
+    abstract Loaded<V> load(File file) throws DoNotExistsException;
+
+    /**
+     * Gets the directory to watch for the changes of a file.
+     * @param file The canonical path of the file
+     * @return The directory to watch
+     */
+    abstract Path watchedDirectory(Path file);
+
+    /**
+     * Tells whether a file may be cached, from its size, before it is read.
+     * @param size The size of the file, in bytes
+     * @param maxBytes The maximum estimated size of the cached values, in bytes
+     * @return false to leave the file uncached without reading it
+     */
+    boolean fits(long size, long maxBytes) {
+        return true;
+    }
+
+    /**
+     * Gets the value of a file, reading it only if it isn't cached or the file changed.
+     * The returned value is shared and must not be modified.
+     *
+     * @param file The file to read
+     * @return The value of the file, or null if the file doesn't {@link #fits(long, long) fit} in the cache
+     * @throws DoNotExistsException if the file can't be read
+     */
+    final V get(File file) throws DoNotExistsException {
+        final String path = file.getAbsolutePath();
+        synchronized (this) {
+            final String alias = aliases.get(path);
+            final Entry<V> entry = alias == null ? null : entries.get(alias);
+            if (entry != null && entry.trusted) return entry.value;
+        }
+
+        final String key;
+        final Stamp stamp;
+        final boolean watched;
+        final long seen;
+        try {
+            key = file.getCanonicalPath();
+            final Path directory = watchedDirectory(Path.of(key));
+            watched = watcher != null && directory != null && watcher.watch(directory);
+            synchronized (this) {
+                seen = invalidations;
+            }
+            stamp = Stamp.of(file);
+        } catch (IOException e) {
+            throw new DoNotExistsException(file);
+        }
+        if (!fits(stamp.size, maxBytes)) return null;
+        synchronized (this) {
+            final Entry<V> entry = entries.get(key);
+            if (entry != null && entry.stamp.equals(stamp)) {
+                entry.trusted = watched;
+                alias(path, key, entry);
+                return entry.value;
+            }
+        }
+
+        final Loaded<V> loaded = load(file);
+        try {
+            if (!stamp.equals(Stamp.of(file))) return loaded.value;
+        } catch (IOException e) {
+            return loaded.value;
+        }
+        synchronized (this) {
+            final Entry<V> entry = new Entry<>(stamp, loaded.value, loaded.bytes);
+            entry.trusted = watched && seen == invalidations;
+            put(key, entry);
+            if (entries.get(key) == entry) alias(path, key, entry);
+        }
+        return loaded.value;
+    }
+
+    /**
+     * Drops the entry of a file.
+     * @param file The file that changed
+     */
+    final void invalidate(File file) {
+        try {
+            invalidate(file.getCanonicalPath());
+        } catch (IOException ignored) {
+            // never cached
+        }
+    }
+
+    @Override
+    public final void changed(Path directory, Path entry) {
+        invalidate(entry.toString());
+        invalidate(directory.toString());
+    }
+
+    @Override
+    public final synchronized void lost(Path directory) {
+        invalidations++;
+        for (Map.Entry<String, Entry<V>> entry : entries.entrySet()) {
+            if (directory.equals(watchedDirectory(Path.of(entry.getKey())))) entry.getValue().trusted = false;
+        }
+    }
+
+    /**
+     * Stops watching the directories of the cached files.
+     */
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    private synchronized void invalidate(String key) {
+        invalidations++;
+        final Entry<V> entry = entries.remove(key);
+        if (entry != null) removed(key, entry);
+    }
+
+    private void put(String key, Entry<V> entry) {
+        if (entry.bytes > maxBytes) return;
+        final Entry<V> previous = entries.put(key, entry);
+        if (previous != null) removed(key, previous);
+        bytes += entry.bytes;
+        final Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            final Map.Entry<String, Entry<V>> evicted = eldest.next();
+            eldest.remove();
+            removed(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    private void alias(String path, String key, Entry<V> entry) {
+        if (!key.equals(aliases.put(path, key))) entry.aliases.add(path);
+    }
+
+    private void removed(String key, Entry<V> entry) {
+        bytes -= entry.bytes;
+        for (String path : entry.aliases) aliases.remove(path, key);
+    }
+
+    /**
+     * A value read from a file, with its estimated size in bytes.
+     */
+    record Loaded<V>(V value, long bytes) {}
+
+    /**
+     * The attributes of a file telling whether it changed.
+     */
+    private record Stamp(long size, long modified, Object fileKey) {
+        static Stamp of(File file) throws IOException {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new Stamp(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), attributes.fileKey());
+        }
+    }
+
+    private static final class Entry<V> {
+        final Stamp stamp;
+        final V value;
+        final long bytes;
+        final List<String> aliases = new ArrayList<>(1);
+        boolean trusted;
+
+        Entry(Stamp stamp, V value, long bytes) {
+            this.stamp = stamp;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}